@@ -10,6 +10,8 @@ _value = value;
 }
 public static class This implements Expression {
 public final Token _keyword;
+public int _slot = -1;
+public int _upvalue = -1;
 public This( Token keyword) {
 _keyword = keyword;
 }
@@ -17,6 +19,9 @@ _keyword = keyword;
 public static class Super implements Expression {
 public final Token _keyword;
 public final Token _methodName;
+public int _slot = -1;
+public int _upvalue = -1;
+public This _self = null;
 public Super( Token keyword, Token methodName) {
 _keyword = keyword;
 _methodName = methodName;
@@ -24,6 +29,9 @@ _methodName = methodName;
 }
 public static class VarAccess implements Expression {
 public final Token _identifer;
+public int _slot = -1;
+public int _upvalue = -1;
+public int _global = -1;
 public VarAccess( Token identifer) {
 _identifer = identifer;
 }
@@ -32,6 +40,7 @@ public static class Logical implements Expression {
 public final Expression _lhs;
 public final Token _operator;
 public final Expression _rhs;
+public int _state = 0;
 public Logical( Expression lhs, Token operator, Expression rhs) {
 _lhs = lhs;
 _operator = operator;
@@ -48,6 +57,9 @@ public static class Call implements Expression {
 public final Expression _funcName;
 public final Token _closeParen;
 public final List<Expression> _arguments;
+public int _state = 0;
+public Object _target = null;
+public boolean _tail = false;
 public Call( Expression funcName, Token closeParen, List<Expression> arguments) {
 _funcName = funcName;
 _closeParen = closeParen;
@@ -57,6 +69,7 @@ _arguments = arguments;
 public static class Get implements Expression {
 public final Expression _object;
 public final Token _propName;
+public Object _cache = null;
 public Get( Expression object, Token propName) {
 _object = object;
 _propName = propName;
@@ -65,6 +78,7 @@ _propName = propName;
 public static class Unary implements Expression {
 public final Token _operator;
 public final Expression _expr;
+public int _state = 0;
 public Unary( Token operator, Expression expr) {
 _operator = operator;
 _expr = expr;
@@ -73,6 +87,9 @@ _expr = expr;
 public static class Assign implements Expression {
 public final Token _identifier;
 public final Expression _value;
+public int _slot = -1;
+public int _upvalue = -1;
+public int _global = -1;
 public Assign( Token identifier, Expression value) {
 _identifier = identifier;
 _value = value;
@@ -82,6 +99,7 @@ public static class Set implements Expression {
 public final Expression _object;
 public final Token _propName;
 public final Expression _value;
+public Object _cache = null;
 public Set( Expression object, Token propName, Expression value) {
 _object = object;
 _propName = propName;
@@ -92,6 +110,7 @@ public static class Binary implements Expression {
 public final Expression _lhs;
 public final Token _operator;
 public final Expression _rhs;
+public int _state = 0;
 public Binary( Expression lhs, Token operator, Expression rhs) {
 _lhs = lhs;
 _operator = operator;
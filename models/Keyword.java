@@ -7,6 +7,11 @@ import static models.TokenType.*;
 
 public final class Keyword {
     private static final Map<String, TokenType> keywords;
+    /**
+     * Same as {@link #keywords}, for {@link #get(CharSequence, int, int)}
+     */
+    private static final String[] names;
+    private static final TokenType[] types;
     static {
         keywords = new HashMap<>();
         keywords.put("nil", NIL);
@@ -25,6 +30,11 @@ public final class Keyword {
         keywords.put("class", CLASS);
         keywords.put("this", THIS);
         keywords.put("super", SUPER);
+
+        names = keywords.keySet().toArray(new String[0]);
+        types = new TokenType[names.length];
+        for (int idx = 0; idx < names.length; idx++)
+            types[idx] = keywords.get(names[idx]);
     }
 
     /**
@@ -34,4 +44,24 @@ public final class Keyword {
     public static TokenType get(String expected) {
         return keywords.get(expected);
     }
+
+    /**
+     * Same as {@link #get(String)} for {@code source[start, end)}, without
+     * making it a {@code String}
+     */
+    public static TokenType get(CharSequence source, int start, int end) {
+        for (int idx = 0; idx < names.length; idx++) {
+            String name = names[idx];
+            if (name.length() != end - start)
+                continue;
+
+            int at = 0;
+            while (at < name.length() && name.charAt(at) == source.charAt(start + at))
+                at++;
+            if (at == name.length())
+                return types[idx];
+        }
+
+        return null;
+    }
 }
@@ -4,6 +4,8 @@ import models.Expression.VarAccess;
 public interface Statement {
 public static class Block implements Statement {
 public final List<Statement> _stmtList;
+public int _slotCount = 0;
+public boolean _inlined = false;
 public Block( List<Statement> stmtList) {
 _stmtList = stmtList;
 }
@@ -23,6 +25,7 @@ _expr = expr;
 public static class VarDeclare implements Statement {
 public final Token _identifier;
 public final Expression _initializer;
+public int _slot = -1;
 public VarDeclare( Token identifier, Expression initializer) {
 _identifier = identifier;
 _initializer = initializer;
@@ -46,10 +49,29 @@ _condition = condition;
 _body = body;
 }
 }
+public static class For implements Statement {
+public final Statement _initializer;
+public final Expression _condition;
+public final Expression _iterate;
+public final Statement _body;
+public int _slotCount = 0;
+public boolean _inlined = false;
+public int _state = 0;
+public For( Statement initializer, Expression condition, Expression iterate, Statement body) {
+_initializer = initializer;
+_condition = condition;
+_iterate = iterate;
+_body = body;
+}
+}
 public static class FuncPrototype implements Statement {
 public final Token _identifier;
 public final List<Token> _params;
 public final List<Statement> _blockStmt;
+public int _slot = -1;
+public int _slotCount = 0;
+public int[] _captures = null;
+public Object _profile = null;
 public FuncPrototype( Token identifier, List<Token> params, List<Statement> blockStmt) {
 _identifier = identifier;
 _params = params;
@@ -68,6 +90,9 @@ public static class ClassDeclare implements Statement {
 public final Token _identifier;
 public final VarAccess _superClass;
 public final List<FuncPrototype> _methods;
+public int _slot = -1;
+public int _superSlot = -1;
+public boolean _inlined = false;
 public ClassDeclare( Token identifier, VarAccess superClass, List<FuncPrototype> methods) {
 _identifier = identifier;
 _superClass = superClass;
@@ -0,0 +1,99 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Symbol table: give each distinct name a dense {@code int} id, so the passes
+ * after {@code Scanner} compare and look up names as ints instead of hashing
+ * the {@code String} again. Same text = same id = same {@code String}
+ * instance
+ *
+ * @implNote Not thread-safe. Symbols are only added while scanning or parsing,
+ *           on the thread running the program. {@link #name(int)} is safe from
+ *           any thread once the id is known
+ * @implNote Never cleared, the ids stay in the globals, shapes and classes
+ *           from one {@code Tan.run} to the next. So only names are interned
+ *           here, not string literals
+ */
+public final class Symbol {
+    private static String[] names = new String[256];
+    private static int count = 0;
+    /**
+     * Open addressing, hold {@code id + 1}, {@code 0} = empty
+     */
+    private static int[] table = new int[512];
+
+    public static final int THIS = intern("this");
+    public static final int SUPER = intern("super");
+    public static final int INIT = intern("init");
+
+    private Symbol() {
+    }
+
+    public static int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Same as {@link #intern(String)} for {@code source[start, end)}, without
+     * making it a {@code String} when the symbol already exist
+     *
+     * @implNote Compare the chars of {@code source} as they are, so the range
+     *           must be ASCII when {@code source} is a {@code MappedSource}
+     */
+    public static int intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int idx = start; idx < end; idx++)
+            hash = 31 * hash + source.charAt(idx);
+
+        int mask = table.length - 1;
+        for (int bucket = hash & mask;; bucket = (bucket + 1) & mask) {
+            int id = table[bucket] - 1;
+            if (id == -1)
+                return add(bucket, source.subSequence(start, end).toString());
+            if (matches(names[id], source, start, end))
+                return id;
+        }
+    }
+
+    /**
+     * @return Text of the symbol
+     */
+    public static String name(int symbol) {
+        return names[symbol];
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start)
+            return false;
+
+        for (int idx = 0; idx < name.length(); idx++) {
+            if (name.charAt(idx) != source.charAt(start + idx))
+                return false;
+        }
+        return true;
+    }
+
+    private static int add(int bucket, String name) {
+        if (count == names.length)
+            names = Arrays.copyOf(names, count * 2);
+        names[count] = name;
+        table[bucket] = count + 1;
+
+        // Keep the table at most half full
+        if (++count * 2 > table.length)
+            rehash();
+        return count - 1;
+    }
+
+    private static void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < count; id++) {
+            int bucket = names[id].hashCode() & mask;
+            while (table[bucket] != 0)
+                bucket = (bucket + 1) & mask;
+            table[bucket] = id + 1;
+        }
+    }
+}
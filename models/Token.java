@@ -2,25 +2,61 @@ package models;
 
 public class Token {
     final TokenType _type;
-    final String _lexeme;
+    /**
+     * {@code null} until the first {@link #getLexeme()} when the token is
+     * created from a source range
+     */
+    String _lexeme;
     final Object _literal;
     final int _lineID;
+    /**
+     * Where {@link #_lexeme} is decoded from, {@code null} if it's given
+     */
+    final CharSequence _source;
+    final int _start, _end;
+    /**
+     * Id from {@link Symbol} when the token is a name ({@code IDENTIFIER,
+     * THIS, SUPER}), else {@code -1}
+     */
+    final int _symbol;
 
     public Token(TokenType type, String lexeme, int lineID) {
-        _type = type;
-        _lexeme = lexeme;
-        _lineID = lineID;
-        _literal = null;
+        this(type, lexeme, null, lineID);
     }
 
     /**
      * @param literal - Only for {@code TokenType: NUMBER, STRING}
      */
     public Token(TokenType type, String lexeme, Object literal, int lineID) {
+        this(type, lexeme, literal, -1, lineID);
+    }
+
+    /**
+     * @param symbol - Same as {@link #_symbol}, {@code lexeme} is its name
+     */
+    public Token(TokenType type, String lexeme, Object literal, int symbol, int lineID) {
         _type = type;
         _lexeme = lexeme;
         _lineID = lineID;
         _literal = literal;
+        _source = null;
+        _start = _end = 0;
+        _symbol = symbol;
+    }
+
+    /**
+     * Same as {@link #Token(TokenType, String, Object, int)}, but the lexeme is
+     * {@code source[start, end)}, only read when {@link #getLexeme()} need it
+     */
+    public Token(TokenType type, CharSequence source, int start, int end, Object literal, int lineID) {
+        _type = type;
+        _lexeme = null;
+        _lineID = lineID;
+        _literal = literal;
+        _source = source;
+        _start = start;
+        _end = end;
+        _symbol = -1;
     }
 
     /* --------- Helper function --------- */
@@ -30,8 +66,25 @@ public class Token {
         return _type;
     }
 
+    /**
+     * @implNote Two threads may decode the same lexeme (see {@code JIT}), both
+     *           get an equal {@code String} so it doesn't matter
+     */
     public String getLexeme() {
-        return _lexeme;
+        String lexeme = _lexeme;
+        if (lexeme == null) {
+            lexeme = _source.subSequence(_start, _end).toString();
+            _lexeme = lexeme;
+        }
+
+        return lexeme;
+    }
+
+    /**
+     * @return Same as {@link #_symbol}
+     */
+    public int getSymbol() {
+        return _symbol;
     }
 
     public Object getLiteral() {
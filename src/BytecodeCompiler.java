@@ -0,0 +1,666 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import src.VM.VMFunction;
+import models.Token;
+import static models.TokenType.*;
+import models.Expression;
+import models.Expression.Literal;
+import models.Expression.This;
+import models.Expression.Grouping;
+import models.Expression.Logical;
+import models.Expression.Call;
+import models.Expression.Unary;
+import models.Expression.Get;
+import models.Expression.VarAccess;
+import models.Expression.Binary;
+import models.Expression.Ternary;
+import models.Expression.Assign;
+import models.Expression.Set;
+import models.Expression.Super;
+import models.Statement;
+import models.Statement.Block;
+import models.Statement.ClassDeclare;
+import models.Statement.Expr;
+import models.Statement.Print;
+import models.Statement.Return;
+import models.Statement.VarDeclare;
+import models.Statement.If;
+import models.Statement.While;
+import models.Statement.For;
+import models.Statement.FuncPrototype;
+
+/**
+ * Compile the AST to {@link Chunk} for {@link VM}.
+ * <p />
+ * Locals live in stack slots of the call frame, variables captured by an inner
+ * function become upvalues. So this class do its own slot numbering, instead
+ * of using {@code _slot} from {@link Resolver}
+ *
+ * @implNote {@link Resolver} still must run before, because it's the one
+ *           report scope errors and decide which names are globals. This
+ *           class trust the AST and never report
+ */
+public class BytecodeCompiler {
+    private FunctionState current = null;
+    private ClassState currentClass = null;
+    /**
+     * Line of the last token visited. Node without token (i.e: Literal) use
+     * this
+     */
+    private int line = 1;
+
+    /**
+     * @return The top-level function, call it to run the program
+     */
+    public VMFunction compile(List<Statement> ASTList) {
+        current = new FunctionState(null, new VMFunction("script", 0), FuncType.SCRIPT);
+
+        compileList(ASTList);
+
+        return endFunction();
+    }
+
+    /* ---------------- Statement -------------------- */
+
+    private void compileList(List<Statement> stmtList) {
+        for (Statement stmt : stmtList) {
+            // null = statement with syntax error, skip it same as Interpreter
+            if (stmt != null)
+                compile(stmt);
+        }
+    }
+
+    private void compile(Statement s) {
+        switch (s) {
+            case Block b -> {
+                beginScope();
+                int handler = emitJump(OpCode.PUSH_HANDLER);
+                compileList(b._stmtList);
+                emit(OpCode.POP_HANDLER);
+                endScope();
+                // A runtime error inside the block continue here, after the
+                // VM already drop the locals of the block
+                patchJump(handler);
+            }
+            case VarDeclare vd -> {
+                line = vd._identifier.getLineID();
+                if (vd._initializer != null)
+                    compile(vd._initializer);
+                else
+                    emit(OpCode.NIL);
+
+                // Declare after the initializer, so `var a = a;` read the outer `a`
+                defineVariable(vd._identifier);
+            }
+            case FuncPrototype fp -> {
+                line = fp._identifier.getLineID();
+                // Declare before the body, so the function can call itself
+                if (current.scopeDepth > 0) {
+                    addLocal(fp._identifier.getLexeme());
+                    function(fp, FuncType.FUNCTION);
+                } else {
+                    function(fp, FuncType.FUNCTION);
+                    emit(OpCode.DEFINE_GLOBAL, constant(fp._identifier.getLexeme()));
+                }
+            }
+            case ClassDeclare cd -> {
+                compileClass(cd);
+            }
+            case If i -> {
+                compile(i._condition);
+                int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+                emit(OpCode.POP);
+                compile(i._ifStmt);
+                int endJump = emitJump(OpCode.JUMP);
+
+                patchJump(elseJump);
+                stack(1); // the condition is still on stack when jumping here
+                emit(OpCode.POP);
+                if (i._elseStmt != null)
+                    compile(i._elseStmt);
+                patchJump(endJump);
+            }
+            case While w -> {
+                int loopStart = current.chunk.count;
+                compile(w._condition);
+                int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+                emit(OpCode.POP);
+                compile(w._body);
+                emitLoop(loopStart);
+
+                patchJump(exitJump);
+                stack(1); // the condition is still on stack when jumping here
+                emit(OpCode.POP);
+            }
+            case For f -> {
+                compileFor(f);
+            }
+            case Return r -> {
+                line = r._keyword.getLineID();
+                if (current.type == FuncType.INITIALIZER) {
+                    // Same as TanFunction, initializer always return `this`
+                    if (r._returnVal != null) {
+                        compile(r._returnVal);
+                        emit(OpCode.POP);
+                    }
+                    emit(OpCode.GET_LOCAL, 0);
+                } else if (r._returnVal != null)
+                    compile(r._returnVal);
+                else
+                    emit(OpCode.NIL);
+
+                emit(OpCode.RETURN);
+            }
+            case Print p -> {
+                compile(p._expr);
+                emit(OpCode.PRINT);
+            }
+            case Expr e -> {
+                compile(e._expr);
+                emit(OpCode.POP);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Same code as the Block and While the parser used to desugar {@code for}
+     * into: a handler around the whole loop when there is an initializer, and
+     * one around {@code body; iterate;}
+     */
+    private void compileFor(For f) {
+        int outerHandler = -1;
+        if (f._initializer != null) {
+            beginScope();
+            outerHandler = emitJump(OpCode.PUSH_HANDLER);
+            compile(f._initializer);
+        }
+
+        int loopStart = current.chunk.count;
+        compile(f._condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+
+        int handler = -1;
+        if (f._body != null && f._iterate != null)
+            handler = emitJump(OpCode.PUSH_HANDLER);
+        if (f._body != null)
+            compile(f._body);
+        if (f._iterate != null) {
+            compile(f._iterate);
+            emit(OpCode.POP);
+        }
+        if (handler != -1) {
+            emit(OpCode.POP_HANDLER);
+            patchJump(handler);
+        }
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        stack(1); // the condition is still on stack when jumping here
+        emit(OpCode.POP);
+
+        if (f._initializer != null) {
+            emit(OpCode.POP_HANDLER);
+            endScope();
+            patchJump(outerHandler);
+        }
+    }
+
+    /**
+     * Stack layout of a subclass: the superclass stay in a hidden local named
+     * {@code super}, so methods capture it as an upvalue. Same as the
+     * {@code super} environment in {@link Interpreter}
+     */
+    private void compileClass(ClassDeclare cd) {
+        String className = cd._identifier.getLexeme();
+        int nameConstant = constant(className);
+        boolean isLocal = current.scopeDepth > 0;
+
+        // Local class need its slot before the hidden `super` local
+        int classSlot = -1;
+        if (isLocal) {
+            line = cd._identifier.getLineID();
+            emit(OpCode.NIL);
+            classSlot = addLocal(className);
+        }
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (cd._superClass != null) {
+            beginScope();
+            compile(cd._superClass);
+            addLocal("super");
+            classState.hasSuperClass = true;
+        }
+
+        line = cd._identifier.getLineID();
+        emit(OpCode.CLASS, nameConstant, classState.hasSuperClass ? 1 : 0);
+        if (isLocal) {
+            emit(OpCode.SET_LOCAL, classSlot);
+        } else {
+            emit(OpCode.DEFINE_GLOBAL, nameConstant);
+            emit(OpCode.GET_GLOBAL, nameConstant);
+        }
+
+        for (FuncPrototype method : cd._methods) {
+            String methodName = method._identifier.getLexeme();
+            line = method._identifier.getLineID();
+            function(method, methodName.equals("init") ? FuncType.INITIALIZER : FuncType.METHOD);
+            emit(OpCode.METHOD, constant(methodName));
+        }
+        emit(OpCode.POP); // the class
+
+        if (classState.hasSuperClass)
+            endScope();
+
+        currentClass = classState.enclosing;
+    }
+
+    /* ---------------- Expression -------------------- */
+
+    private void compile(Expression e) {
+        switch (e) {
+            case Assign a -> {
+                compile(a._value);
+                line = a._identifier.getLineID();
+                setVariable(a._identifier.getLexeme(), isGlobal(a._slot, a._upvalue));
+            }
+            case Set s -> {
+                compile(s._object);
+                compile(s._value);
+                line = s._propName.getLineID();
+                emit(OpCode.SET_PROPERTY, constant(s._propName.getLexeme()));
+            }
+            case Ternary t -> {
+                // Same order as Interpreter, all 3 operands are evaluated
+                compile(t._rhs_second);
+                compile(t._rhs_first);
+                compile(t._lhs);
+                emit(OpCode.SELECT);
+            }
+            case Binary b -> {
+                compile(b._lhs);
+                compile(b._rhs);
+                line = b._operator.getLineID();
+
+                switch (b._operator.getType()) {
+                    case NOT_EQUAL -> emit(OpCode.NOT_EQUAL);
+                    case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+                    case MORE -> emit(OpCode.MORE);
+                    case MORE_EQUAL -> emit(OpCode.MORE_EQUAL);
+                    case LESS -> emit(OpCode.LESS);
+                    case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+                    case PLUS -> emit(OpCode.ADD);
+                    case SUBTRACT -> emit(OpCode.SUBTRACT);
+                    case MULTIPLY -> emit(OpCode.MULTIPLY);
+                    case DIVIDE -> emit(OpCode.DIVIDE);
+                    default -> {
+                    }
+                }
+            }
+            case Unary u -> {
+                compile(u._expr);
+                line = u._operator.getLineID();
+
+                if (u._operator.getType() == LOGIC_NOT)
+                    emit(OpCode.NOT);
+                else if (u._operator.getType() == SUBTRACT)
+                    emit(OpCode.NEGATE);
+            }
+            case Call c -> {
+                compile(c._funcName);
+                for (Expression arg : c._arguments) {
+                    compile(arg);
+                }
+                line = c._closeParen.getLineID();
+                emit(OpCode.CALL, c._arguments.size());
+            }
+            case Get g -> {
+                compile(g._object);
+                line = g._propName.getLineID();
+                emit(OpCode.GET_PROPERTY, constant(g._propName.getLexeme()));
+            }
+            case Logical l -> {
+                compile(l._lhs);
+
+                // Short-circuit
+                if (l._operator.getType() == LOGIC_AND) {
+                    int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+                    emit(OpCode.POP);
+                    compile(l._rhs);
+                    patchJump(endJump);
+                } else {
+                    int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+                    int endJump = emitJump(OpCode.JUMP);
+                    patchJump(elseJump);
+                    emit(OpCode.POP);
+                    compile(l._rhs);
+                    patchJump(endJump);
+                }
+            }
+            case VarAccess va -> {
+                line = va._identifer.getLineID();
+                getVariable(va._identifer.getLexeme(), isGlobal(va._slot, va._upvalue));
+            }
+            case Grouping g -> {
+                compile(g._expr);
+            }
+            case This th -> {
+                line = th._keyword.getLineID();
+                getVariable("this", isGlobal(th._slot, th._upvalue));
+            }
+            case Super sp -> {
+                line = sp._keyword.getLineID();
+                if (sp._self == null) {
+                    // Resolver stopped before this node. Same as Interpreter,
+                    // the lookup of `super` fail first
+                    getVariable("super", true);
+                    emit(OpCode.POP);
+                    getVariable("this", true);
+                } else
+                    getVariable("this", isGlobal(sp._self._slot, sp._self._upvalue));
+                getVariable("super", isGlobal(sp._slot, sp._upvalue));
+                line = sp._methodName.getLineID();
+                emit(OpCode.GET_SUPER, constant(sp._methodName.getLexeme()));
+            }
+            case Literal l -> {
+                if (l._value == null)
+                    emit(OpCode.NIL);
+                else if (l._value.equals(true))
+                    emit(OpCode.TRUE);
+                else if (l._value.equals(false))
+                    emit(OpCode.FALSE);
+                else
+                    emit(OpCode.CONSTANT, current.chunk.addConstant(l._value));
+            }
+            default -> {
+            }
+        }
+    }
+
+    /* ---------------- Function -------------------- */
+
+    private void function(FuncPrototype fp, FuncType type) {
+        FunctionState state = new FunctionState(current,
+                new VMFunction(fp._identifier.getLexeme(), fp._params.size()), type);
+        current = state;
+        beginScope();
+
+        for (Token param : fp._params) {
+            addLocal(param.getLexeme());
+        }
+        compileList(fp._blockStmt);
+
+        VMFunction function = endFunction();
+        emit(OpCode.CLOSURE, current.chunk.addConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            current.chunk.write(upvalue.isLocal ? 1 : 0, line);
+            current.chunk.write(upvalue.index, line);
+        }
+    }
+
+    /**
+     * Emit the implicit {@code return} then go back to the enclosing function
+     */
+    private VMFunction endFunction() {
+        if (current.type == FuncType.INITIALIZER)
+            emit(OpCode.GET_LOCAL, 0);
+        else
+            emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+
+        VMFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.isInitializer = current.type == FuncType.INITIALIZER;
+        function.chunk.finish();
+
+        current = current.enclosing;
+        return function;
+    }
+
+    /* ---------------- Scope Helper function -------------------- */
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    /**
+     * Pop every local of the scope. Captured one must move to heap first
+     */
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured)
+                emit(OpCode.CLOSE_UPVALUE);
+            else
+                emit(OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    /**
+     * @return Slot of the new local
+     */
+    private int addLocal(String identifier) {
+        current.locals.add(new Local(identifier, current.scopeDepth));
+        return current.locals.size() - 1;
+    }
+
+    /**
+     * The value is already on top of stack
+     */
+    private void defineVariable(Token identifier) {
+        if (current.scopeDepth > 0)
+            addLocal(identifier.getLexeme()); // the value on stack become the local
+        else
+            emit(OpCode.DEFINE_GLOBAL, constant(identifier.getLexeme()));
+    }
+
+    /**
+     * @param isGlobal - See {@link #isGlobal(int, int)}
+     */
+    private void getVariable(String identifier, boolean isGlobal) {
+        int slot = isGlobal ? -1 : resolveLocal(current, identifier);
+        if (slot != -1) {
+            emit(OpCode.GET_LOCAL, slot);
+            return;
+        }
+
+        int upvalue = isGlobal ? -1 : resolveUpvalue(current, identifier);
+        if (upvalue != -1)
+            emit(OpCode.GET_UPVALUE, upvalue);
+        else
+            emit(OpCode.GET_GLOBAL, constant(identifier));
+    }
+
+    /**
+     * @param isGlobal - See {@link #isGlobal(int, int)}
+     */
+    private void setVariable(String identifier, boolean isGlobal) {
+        int slot = isGlobal ? -1 : resolveLocal(current, identifier);
+        if (slot != -1) {
+            emit(OpCode.SET_LOCAL, slot);
+            return;
+        }
+
+        int upvalue = isGlobal ? -1 : resolveUpvalue(current, identifier);
+        if (upvalue != -1)
+            emit(OpCode.SET_UPVALUE, upvalue);
+        else
+            emit(OpCode.SET_GLOBAL, constant(identifier));
+    }
+
+    /**
+     * {@link Resolver} gave the node no slot and no upvalue, so
+     * {@link Interpreter} look it up in {@code globals}. Normally the scopes
+     * here agree, but not after a resolve error: the nodes after the error are
+     * never resolved
+     */
+    private static boolean isGlobal(int slot, int upvalue) {
+        return slot == -1 && upvalue == -1;
+    }
+
+    private int resolveLocal(FunctionState state, String identifier) {
+        for (int idx = state.locals.size() - 1; idx >= 0; idx--) {
+            if (state.locals.get(idx).identifier.equals(identifier))
+                return idx;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Same as {@code resolveLocal()} but search the enclosing functions. Every
+     * function in between also capture the variable
+     */
+    private int resolveUpvalue(FunctionState state, String identifier) {
+        if (state.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(state.enclosing, identifier);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, identifier);
+        if (upvalue != -1)
+            return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int idx = 0; idx < state.upvalues.size(); idx++) {
+            Upvalue upvalue = state.upvalues.get(idx);
+            if (upvalue.index == index && upvalue.isLocal == isLocal)
+                return idx;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    /* ---------------- Emit Helper function -------------------- */
+
+    private int constant(String identifier) {
+        return current.chunk.addConstant(identifier);
+    }
+
+    /**
+     * @param code - An instruction then its operands
+     */
+    private void emit(int... code) {
+        for (int value : code) {
+            current.chunk.write(value, line);
+        }
+        stack(OpCode.stackEffect(code[0], (code.length > 1) ? code[1] : 0));
+    }
+
+    /**
+     * Track the stack height of the function while emitting, see
+     * {@link VMFunction#maxStack}
+     */
+    private void stack(int effect) {
+        current.stackHeight += effect;
+        if (current.stackHeight > current.function.maxStack)
+            current.function.maxStack = current.stackHeight;
+    }
+
+    /**
+     * @return Offset of the jump operand, for {@link #patchJump(int)}
+     */
+    private int emitJump(int instruction) {
+        emit(instruction);
+        return current.chunk.write(0, line);
+    }
+
+    /**
+     * Jump from the operand at {@code offset} to the next instruction
+     */
+    private void patchJump(int offset) {
+        Chunk chunk = current.chunk;
+        chunk.code[offset] = chunk.count - offset - 1;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        Chunk chunk = current.chunk;
+        chunk.write(chunk.count - loopStart + 1, line);
+    }
+
+    /* ---------------- Compiler State -------------------- */
+
+    private enum FuncType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VMFunction function;
+        final Chunk chunk;
+        final FuncType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        /**
+         * Slots used by the frame at the instruction being emitted, the
+         * locals included
+         */
+        int stackHeight;
+
+        FunctionState(FunctionState enclosing, VMFunction function, FuncType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.chunk = function.chunk;
+            this.type = type;
+
+            // Slot 0 is the callee. Method store `this` there
+            boolean isMethod = type == FuncType.METHOD || type == FuncType.INITIALIZER;
+            locals.add(new Local(isMethod ? "this" : "", 0));
+            // The callee and the arguments are pushed by the caller
+            stackHeight = function.maxStack = 1 + function.arity;
+        }
+    }
+
+    private static class ClassState {
+        final ClassState enclosing;
+        boolean hasSuperClass = false;
+
+        ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class Local {
+        final String identifier;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String identifier, int depth) {
+            this.identifier = identifier;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytecode of a function, output of {@link BytecodeCompiler}
+ */
+class Chunk {
+    /**
+     * Flat instruction array. See {@link OpCode} for the operands of each
+     * instruction
+     */
+    int[] code = new int[16];
+    /**
+     * Source line of each slot in {@link #code}, for runtime error
+     */
+    int[] lines = new int[16];
+    int count = 0;
+    /**
+     * Same as {@code constant pool}
+     */
+    private final List<Object> constantList = new ArrayList<>();
+    /**
+     * Index of each {@code String} in {@link #constantList}, so reusing a
+     * constant is not a scan of the list
+     */
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    Object[] constants;
+
+    /**
+     * @return Offset of the written slot
+     */
+    int write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = value;
+        lines[count] = line;
+        return count++;
+    }
+
+    /**
+     * Strings are reused, so every use of a name point to the same constant
+     */
+    int addConstant(Object value) {
+        if (value instanceof String) {
+            Integer idx = constantIndex.get(value);
+            if (idx != null)
+                return idx;
+            constantIndex.put(value, constantList.size());
+        }
+
+        constantList.add(value);
+        return constantList.size() - 1;
+    }
+
+    /**
+     * Trim the arrays when compiling is done
+     */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
@@ -0,0 +1,648 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Symbol;
+import models.Token;
+import static models.TokenType.*;
+import models.Expression;
+import models.Expression.Literal;
+import models.Expression.This;
+import models.Expression.Grouping;
+import models.Expression.Logical;
+import models.Expression.Call;
+import models.Expression.Unary;
+import models.Expression.Get;
+import models.Expression.VarAccess;
+import models.Expression.Binary;
+import models.Expression.Ternary;
+import models.Expression.Assign;
+import models.Expression.Set;
+import models.Expression.Super;
+import models.Statement;
+import models.Statement.Block;
+import models.Statement.ClassDeclare;
+import models.Statement.Expr;
+import models.Statement.Print;
+import models.Statement.Return;
+import models.Statement.VarDeclare;
+import models.Statement.If;
+import models.Statement.While;
+import models.Statement.For;
+import models.Statement.FuncPrototype;
+
+/**
+ * Second execution engine. Same semantics as {@link Interpreter}, but the
+ * resolved AST is compiled <b><i>once</i></b> into a tree of lambdas. Each
+ * lambda already know its operator, its slot and its children, so
+ * running it don't need to {@code switch} on the node type again.
+ * <p />
+ * Select with {@code --engine=closure}
+ *
+ * @implNote Must run after {@link Resolver}, because it read {@code _slot},
+ *           {@code _upvalue} and {@code _slotCount} from the nodes
+ */
+public class ClosureCompiler {
+    /**
+     * Compiled {@code Expression}
+     */
+    @FunctionalInterface
+    interface Eval {
+        Object run(Environment env);
+    }
+
+    /**
+     * Compiled {@code Statement}
+     *
+     * @implNote Return {@link #NORMAL} when the statement complete normally,
+     *           else the value of the {@code return} statement. So returning
+     *           from a function don't need to throw. {@link Interpreter}
+     *           does the same with a {@code boolean} and a field
+     */
+    @FunctionalInterface
+    interface Exec {
+        Object run(Environment env);
+    }
+
+    /**
+     * Completion value of a statement which is not {@code return}
+     */
+    static final Object NORMAL = new Object();
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    public void run(List<Statement> ASTList) {
+        body(ASTList).run(globals);
+    }
+
+    /* ---------------- Statement -------------------- */
+
+    /**
+     * Same as {@link Interpreter#runBlock(List, Environment)}, without creating
+     * the environment. Use for function body and global scope
+     */
+    Exec body(List<Statement> stmtList) {
+        List<Exec> codeList = new ArrayList<>(stmtList.size());
+        for (Statement stmt : stmtList) {
+            // null = statement with syntax error, skip it same as Interpreter
+            if (stmt != null)
+                codeList.add(compile(stmt));
+        }
+        Exec[] code = codeList.toArray(new Exec[0]);
+
+        return (env) -> {
+            try {
+                for (Exec stmt : code) {
+                    Object completion = stmt.run(env);
+                    if (completion != NORMAL)
+                        return completion;
+                }
+            } catch (RuntimeError e) {
+                Tan.err.report(e);
+            }
+            return NORMAL;
+        };
+    }
+
+    private Exec compile(Statement s) {
+        switch (s) {
+            case Block b -> {
+                Exec block = body(b._stmtList);
+                if (b._inlined)
+                    return block;
+
+                int slotCount = b._slotCount;
+                return (env) -> block.run(new Environment(env, slotCount));
+            }
+            case VarDeclare vd -> {
+                int identifier = vd._identifier.getSymbol();
+                int slot = vd._slot;
+                if (vd._initializer == null) {
+                    return (env) -> {
+                        env.defineVar(identifier, slot, null);
+                        return NORMAL;
+                    };
+                }
+
+                Eval initializer = compile(vd._initializer);
+                return (env) -> {
+                    env.defineVar(identifier, slot, initializer.run(env));
+                    return NORMAL;
+                };
+            }
+            case FuncPrototype fp -> {
+                Exec code = body(fp._blockStmt);
+                int identifier = fp._identifier.getSymbol();
+                int slot = fp._slot;
+                return (env) -> {
+                    // Same as Interpreter, define first so it can capture itself
+                    int defined = env.defineVar(identifier, slot, null);
+                    TanFunction func = new TanFunction(fp, env, false, code);
+                    if (defined < 0)
+                        env.defineVar(identifier, func);
+                    else
+                        env.assignAt(defined, func);
+                    return NORMAL;
+                };
+            }
+            case ClassDeclare cd -> {
+                return compileClass(cd);
+            }
+            case If i -> {
+                Eval condition = compile(i._condition);
+                Exec ifStmt = compile(i._ifStmt);
+                Exec elseStmt = (i._elseStmt != null) ? compile(i._elseStmt) : (env) -> NORMAL;
+                return (env) -> Interpreter.truthy(condition.run(env)) ? ifStmt.run(env) : elseStmt.run(env);
+            }
+            case While w -> {
+                Eval condition = compile(w._condition);
+                Exec body = compile(w._body);
+                return (env) -> {
+                    while (Interpreter.truthy(condition.run(env))) {
+                        Object completion = body.run(env);
+                        if (completion != NORMAL)
+                            return completion;
+                    }
+                    return NORMAL;
+                };
+            }
+            case For f -> {
+                return compileFor(f);
+            }
+            case Return r -> {
+                if (r._returnVal == null)
+                    return (env) -> null;
+
+                Eval value = compile(r._returnVal);
+                return (env) -> value.run(env);
+            }
+            case Print p -> {
+                Eval expr = compile(p._expr);
+                return (env) -> {
+                    System.out.println(Interpreter.clean(expr.run(env)));
+                    return NORMAL;
+                };
+            }
+            case Expr e -> {
+                Eval expr = compile(e._expr);
+                return (env) -> {
+                    expr.run(env);
+                    return NORMAL;
+                };
+            }
+            default -> {
+                return (env) -> {
+                    throw new RuntimeError(s, "Statement error");
+                };
+            }
+        }
+    }
+
+    /**
+     * Same as {@code case ClassDeclare} in
+     * {@link Interpreter#runStatement(Statement)}
+     */
+    private Exec compileClass(ClassDeclare cd) {
+        String className = cd._identifier.getLexeme();
+        int classSymbol = cd._identifier.getSymbol();
+        int slot = cd._slot, superSlot = cd._superSlot;
+        boolean inlined = cd._inlined;
+        Eval superClassExpr = (cd._superClass != null) ? compile(cd._superClass) : null;
+        List<FuncPrototype> methodList = cd._methods;
+        Exec[] methodCode = new Exec[methodList.size()];
+        for (int idx = 0; idx < methodCode.length; idx++) {
+            methodCode[idx] = body(methodList.get(idx)._blockStmt);
+        }
+
+        return (env) -> {
+            Object superClass = null;
+            if (superClassExpr != null) {
+                superClass = superClassExpr.run(env);
+
+                if (!(superClass instanceof TanClass))
+                    throw new RuntimeError(cd._identifier, "Superclass must be a class");
+            }
+
+            int classSlot = env.defineVar(classSymbol, slot, null);
+
+            Environment closure = env;
+            if (superClass != null) {
+                if (!inlined)
+                    closure = new Environment(env, 1);
+                closure.defineVar(Symbol.SUPER, superSlot, superClass);
+            }
+
+            SymbolMap<TanFunction> methods = new SymbolMap<>();
+            for (int idx = 0; idx < methodCode.length; idx++) {
+                FuncPrototype method = methodList.get(idx);
+                int methodName = method._identifier.getSymbol();
+                methods.put(methodName, new TanFunction(method, closure,
+                        methodName == Symbol.INIT, methodCode[idx]));
+            }
+
+            TanClass definition = new TanClass(className, (TanClass) superClass, methods);
+
+            if (classSlot < 0)
+                env.assign(cd._identifier, definition);
+            else
+                env.assignAt(classSlot, definition);
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Same as the {@code For} case of {@link Interpreter}
+     */
+    private Exec compileFor(For f) {
+        Eval condition = compile(f._condition);
+        Exec body = (f._body != null) ? compile(f._body) : (env) -> NORMAL;
+        Eval iterate = (f._iterate != null) ? compile(f._iterate) : null;
+
+        Exec iteration;
+        if (iterate == null) {
+            iteration = body;
+        } else if (f._body == null) {
+            iteration = (env) -> {
+                iterate.run(env);
+                return NORMAL;
+            };
+        } else {
+            // Same as the `{ body; iterate; }` block the loop used to be
+            // desugared into: a runtime error skip to the next iteration
+            iteration = (env) -> {
+                try {
+                    Object completion = body.run(env);
+                    if (completion != NORMAL)
+                        return completion;
+                    iterate.run(env);
+                } catch (RuntimeError e) {
+                    Tan.err.report(e);
+                }
+                return NORMAL;
+            };
+        }
+
+        Exec loop = (env) -> {
+            while (Interpreter.truthy(condition.run(env))) {
+                Object completion = iteration.run(env);
+                if (completion != NORMAL)
+                    return completion;
+            }
+            return NORMAL;
+        };
+        if (f._initializer == null)
+            return loop;
+
+        Exec initializer = compile(f._initializer);
+        boolean inlined = f._inlined;
+        int slotCount = f._slotCount;
+        return (env) -> {
+            Environment local = inlined ? env : new Environment(env, slotCount);
+            try {
+                initializer.run(local);
+                return loop.run(local);
+            } catch (RuntimeError e) {
+                Tan.err.report(e);
+            }
+            return NORMAL;
+        };
+    }
+
+    /* ---------------- Expression -------------------- */
+
+    /**
+     * {@code obj.method(...)}, call the method with {@code obj} as {@code this}
+     * without creating a bound method. Same as the {@code Call} case of
+     * {@link Interpreter}
+     */
+    private Eval compileInvoke(Call c, Get g) {
+        Eval object = compile(g._object);
+        Token propName = g._propName;
+        PropertyCache cache = new PropertyCache();
+        Eval[] arguments = new Eval[c._arguments.size()];
+        for (int idx = 0; idx < arguments.length; idx++) {
+            arguments[idx] = compile(c._arguments.get(idx));
+        }
+        Token closeParen = c._closeParen;
+        boolean tail = c._tail;
+
+        return (env) -> {
+            Object obj = object.run(env);
+
+            if (!(obj instanceof TanInstance))
+                throw new RuntimeError(propName, "object is not an instance of class");
+
+            TanInstance instance = (TanInstance) obj;
+            TanFunction method = cache.method(instance, propName);
+            if (method != null)
+                return call(env, method, instance, arguments, closeParen, tail);
+            return call(env, cache.get(instance, propName), null, arguments, closeParen, tail);
+        };
+    }
+
+    /**
+     * Evaluate the arguments then call. Same as the {@code Call} case of
+     * {@link Interpreter}, up to {@link TanCallable#FIXED_ARITY} arguments
+     * don't need a List
+     *
+     * @param tail - {@code return f(...)}, see {@link TailCall}
+     */
+    private Object call(Environment env, Object callee, TanInstance receiver, Eval[] arguments,
+            Token closeParen, boolean tail) {
+        int argc = arguments.length;
+        Object arg0 = null, arg1 = null, arg2 = null;
+        List<Object> args = null;
+        if (argc > TanCallable.FIXED_ARITY) {
+            args = new ArrayList<>(argc);
+            for (Eval arg : arguments) {
+                args.add(arg.run(env));
+            }
+        } else {
+            if (argc > 0)
+                arg0 = arguments[0].run(env);
+            if (argc > 1)
+                arg1 = arguments[1].run(env);
+            if (argc > 2)
+                arg2 = arguments[2].run(env);
+        }
+
+        TanCallable function = interpreter.callable(closeParen, callee, argc);
+        if (tail)
+            return interpreter.callTail(function, receiver, argc, arg0, arg1, arg2, args);
+        return interpreter.call(function, receiver, argc, arg0, arg1, arg2, args);
+    }
+
+    private Eval compile(Expression e) {
+        switch (e) {
+            case Assign a -> {
+                Eval value = compile(a._value);
+                Token identifier = a._identifier;
+                int slot = a._slot, upvalue = a._upvalue;
+
+                if (upvalue != -1) {
+                    return (env) -> {
+                        Object rhsResult = value.run(env);
+                        env.assignUpvalue(upvalue, rhsResult);
+                        return rhsResult;
+                    };
+                }
+                if (slot == -1) {
+                    return (env) -> {
+                        Object rhsResult = value.run(env);
+                        // Same as Interpreter, the slot is cached in the node
+                        if (a._global == -1)
+                            a._global = globals.globalSlot(identifier);
+                        globals.assignGlobal(a._global, identifier, rhsResult);
+                        return rhsResult;
+                    };
+                }
+                return (env) -> {
+                    Object rhsResult = value.run(env);
+                    env.assignAt(slot, rhsResult);
+                    return rhsResult;
+                };
+            }
+            case Set s -> {
+                Eval object = compile(s._object);
+                Eval value = compile(s._value);
+                Token propName = s._propName;
+                PropertyCache cache = new PropertyCache();
+                return (env) -> {
+                    Object obj = object.run(env);
+
+                    if (!(obj instanceof TanInstance))
+                        throw new RuntimeError(propName, "object is not an instance of class");
+
+                    Object result = value.run(env);
+                    cache.set((TanInstance) obj, propName, result);
+                    return result;
+                };
+            }
+            case Ternary t -> {
+                Eval rhs_second = compile(t._rhs_second);
+                Eval rhs_first = compile(t._rhs_first);
+                Eval lhs = compile(t._lhs);
+                return (env) -> {
+                    // Same as Interpreter, all 3 operands are evaluated
+                    Object second = rhs_second.run(env);
+                    Object first = rhs_first.run(env);
+                    return Interpreter.truthy(lhs.run(env)) ? first : second;
+                };
+            }
+            case Binary b -> {
+                return compileBinary(b);
+            }
+            case Unary u -> {
+                Eval rhs = compile(u._expr);
+                Token operator = u._operator;
+
+                switch (operator.getType()) {
+                    case LOGIC_NOT:
+                        return (env) -> !Interpreter.truthy(rhs.run(env));
+                    case SUBTRACT:
+                        return (env) -> {
+                            Object value = rhs.run(env);
+                            if (!(value instanceof Double))
+                                throw new RuntimeError(operator, "operand of unary '-' is not a number");
+                            return -((double) value);
+                        };
+                    default:
+                        return (env) -> {
+                            rhs.run(env);
+                            throw new RuntimeError(operator, "unexpected unary operator");
+                        };
+                }
+            }
+            case Call c -> {
+                if (c._funcName instanceof Get g)
+                    return compileInvoke(c, g);
+
+                Eval funcName = compile(c._funcName);
+                Eval[] arguments = new Eval[c._arguments.size()];
+                for (int idx = 0; idx < arguments.length; idx++) {
+                    arguments[idx] = compile(c._arguments.get(idx));
+                }
+                Token closeParen = c._closeParen;
+
+                boolean tail = c._tail;
+
+                return (env) -> call(env, funcName.run(env), null, arguments, closeParen, tail);
+            }
+            case Get g -> {
+                Eval object = compile(g._object);
+                Token propName = g._propName;
+                PropertyCache cache = new PropertyCache();
+                return (env) -> {
+                    Object obj = object.run(env);
+
+                    if (!(obj instanceof TanInstance))
+                        throw new RuntimeError(propName, "object is not an instance of class");
+
+                    return cache.get((TanInstance) obj, propName);
+                };
+            }
+            case Logical l -> {
+                Eval lhs = compile(l._lhs);
+                Eval rhs = compile(l._rhs);
+
+                // Short-circuit
+                if (l._operator.getType() == LOGIC_AND) {
+                    return (env) -> {
+                        Object value = lhs.run(env);
+                        return !Interpreter.truthy(value) ? value : rhs.run(env);
+                    };
+                }
+                return (env) -> {
+                    Object value = lhs.run(env);
+                    return Interpreter.truthy(value) ? value : rhs.run(env);
+                };
+            }
+            case VarAccess va -> {
+                if (va._slot != -1 || va._upvalue != -1)
+                    return variable(va._identifer, va._slot, va._upvalue);
+
+                Token identifier = va._identifer;
+                return (env) -> {
+                    // Same as Interpreter, the slot is cached in the node
+                    if (va._global == -1)
+                        va._global = globals.globalSlot(identifier);
+                    return globals.getGlobal(va._global, identifier);
+                };
+            }
+            case Grouping g -> {
+                return compile(g._expr);
+            }
+            case This th -> {
+                return variable(th._keyword, th._slot, th._upvalue);
+            }
+            case Super sp -> {
+                Eval superClassExpr = variable(sp._keyword, sp._slot, sp._upvalue);
+                // `self` is missing if Resolver stopped before the Super node
+                Eval self = (sp._self != null) ? compile(sp._self) : (env) -> null;
+                Token methodName = sp._methodName;
+                return (env) -> {
+                    TanClass superClass = (TanClass) superClassExpr.run(env);
+                    TanInstance currentThis = (TanInstance) self.run(env);
+                    TanFunction method = superClass.findMethod(methodName.getSymbol());
+
+                    if (method == null)
+                        throw new RuntimeError(methodName,
+                                "Undefined property '" + methodName.getLexeme());
+                    return method.bind(currentThis);
+                };
+            }
+            case Literal l -> {
+                Object value = l._value;
+                return (env) -> value;
+            }
+            default -> {
+                return (env) -> {
+                    throw new RuntimeError(e, "Expression error");
+                };
+            }
+        }
+    }
+
+    /**
+     * Decide the operator at compile time, so each node only do its own work
+     */
+    private Eval compileBinary(Binary b) {
+        Eval lhs = compile(b._lhs);
+        Eval rhs = compile(b._rhs);
+        Token operator = b._operator;
+
+        switch (operator.getType()) {
+            case NOT_EQUAL:
+                return (env) -> !Interpreter.isEqual(lhs.run(env), rhs.run(env));
+            case EQUAL_EQUAL:
+                return (env) -> Interpreter.isEqual(lhs.run(env), rhs.run(env));
+            case MORE:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '>' is not a number", l, r);
+                    return (double) l > (double) r;
+                };
+            case MORE_EQUAL:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '>=' is not a number", l, r);
+                    return (double) l >= (double) r;
+                };
+            case LESS:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '<' is not a number", l, r);
+                    return (double) l < (double) r;
+                };
+            case LESS_EQUAL:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '<=' is not a number", l, r);
+                    return (double) l <= (double) r;
+                };
+            case PLUS:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    if (l instanceof Double && r instanceof Double)
+                        return (double) l + (double) r;
+                    else if (l instanceof String || r instanceof String)
+                        return (String) l + (String) r;
+
+                    throw new RuntimeError(operator,
+                            "two operand of '+' are not type number or string");
+                };
+            case SUBTRACT:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '-' is not a number", l, r);
+                    return (double) l - (double) r;
+                };
+            case MULTIPLY:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '*' is not a number", l, r);
+                    return (double) l * (double) r;
+                };
+            case DIVIDE:
+                return (env) -> {
+                    Object l = lhs.run(env), r = rhs.run(env);
+                    verifyNumber(operator, "exist an operand of '/' is not a number", l, r);
+                    if ((double) r == 0)
+                        throw new RuntimeError(operator, "divide by 0");
+
+                    return (double) l / (double) r;
+                };
+            default:
+                return (env) -> {
+                    lhs.run(env);
+                    rhs.run(env);
+                    throw new RuntimeError(operator, "unexpected binary operator");
+                };
+        }
+    }
+
+    /* ---------------- Helper function -------------------- */
+
+    private Eval variable(Token identifier, int slot, int upvalue) {
+        if (upvalue != -1)
+            return (env) -> env.getUpvalue(upvalue);
+        if (slot == -1)
+            return (env) -> globals.getValue(identifier);
+
+        return (env) -> env.getAt(slot);
+    }
+
+    private void verifyNumber(Token operator, String message, Object lhs, Object rhs) {
+        if (lhs instanceof Double && rhs instanceof Double)
+            return;
+
+        throw new RuntimeError(operator, message);
+    }
+}
@@ -1,21 +1,49 @@
 package src;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+import models.Symbol;
 import models.Token;
 
 class Environment {
     /**
-     * Same as {@code values}
+     * Value of a global which is used, but not defined (yet)
      */
-    private final Map<String, Object> variable = new HashMap<>();
+    private static final Object UNDEFINED = new Object();
+
+    /**
+     * Same as {@code values}, but map the {@link Symbol} of a global to its
+     * slot, {@code -1} if it has none yet. Symbols are dense, so it's indexed
+     * by the symbol instead of hashing
+     *
+     * @implNote Only the global scope is looked up by name, so local scopes
+     *           leave this {@code null}
+     */
+    private int[] variable;
+    /**
+     * Local variables, indexed by the slot {@link Resolver} gave them. Slots are
+     * handed out in declaration order, so {@link #defineVar(int, Object)} just
+     * append to the end
+     * <p />
+     * Global scope: slot given by {@link #globalSlot(Token)} on first use,
+     * {@link #UNDEFINED} until the global is defined
+     */
+    private Object[] slots;
+    private int size = 0;
     /**
      * Same as {@code enclosing}
      *
-     * @implNote Global scope has {@code prevEnv = null}
+     * @implNote Global scope and function frames have {@code prevEnv = null}:
+     *           a function reach the variables around it through
+     *           {@link #upvalues}
      */
     public final Environment prevEnv;
+    /**
+     * Variables of enclosing functions used by the running function, see
+     * {@code FuncPrototype._captures}. Shared by the environments inside the
+     * same frame
+     */
+    final Box[] upvalues;
 
     /**
      * Use to create {@code Global} Scope
@@ -25,97 +53,267 @@ class Environment {
      */
     public Environment() {
         prevEnv = null;
+        variable = new int[0];
+        slots = new Object[16];
+        upvalues = null;
     }
 
     /**
      * Use to create new local environment
+     *
+     * @param slotCount - Number of variables declared in the scope, counted by
+     *                  {@link Resolver}
      */
-    public Environment(Environment newLocalEnv) {
+    public Environment(Environment newLocalEnv, int slotCount) {
         prevEnv = newLocalEnv;
+        variable = null;
+        slots = new Object[slotCount];
+        upvalues = newLocalEnv.upvalues;
+    }
+
+    /**
+     * Use to create the frame of a function call
+     *
+     * @param upvalues - Captured when the function was created
+     */
+    public Environment(Box[] upvalues, int slotCount) {
+        prevEnv = null;
+        variable = null;
+        slots = new Object[slotCount];
+        this.upvalues = upvalues;
     }
 
     /**
      * Same as {@code define()}
+     *
+     * @param symbol - Name of the variable, only used by the global scope.
+     *               Local variables are stored at the next free slot
+     * @return Slot of the new variable, or {@code -1} in the global scope
+     */
+    public int defineVar(int symbol, Object value) {
+        if (variable != null) {
+            int slot = globalSlot(symbol); // may grow slots
+            slots[slot] = value;
+            return -1;
+        }
+
+        // Only happen when Resolver reported an error and didn't finish counting
+        if (size == slots.length) {
+            Object[] grow = new Object[Math.max(size * 2, 1)];
+            System.arraycopy(slots, 0, grow, 0, size);
+            slots = grow;
+        }
+        slots[size] = value;
+        return size++;
+    }
+
+    /**
+     * Same as {@link #defineVar(int, Object)}, but at the slot
+     * {@link Resolver} gave the declaration. Needed by the variables of an
+     * inlined block: the block may run again and define them again, so they
+     * are not always appended
+     *
+     * @param slot - {@code _slot} of the declaration, {@code -1} if it wasn't
+     *             resolved
+     * @return Same as {@link #defineVar(int, Object)}
      */
-    public void defineVar(String identifier, Object value) {
-        variable.put(identifier, value);
+    public int defineVar(int symbol, int slot, Object value) {
+        if (variable != null || slot < 0)
+            return defineVar(symbol, value);
+
+        // Only happen when Resolver reported an error and didn't finish counting
+        if (slot >= slots.length) {
+            Object[] grow = new Object[Math.max(slot + 1, slots.length * 2)];
+            System.arraycopy(slots, 0, grow, 0, slots.length);
+            slots = grow;
+        }
+        slots[slot] = value;
+        size = Math.max(size, slot + 1);
+        return slot;
     }
 
     /**
      * The key difference between this function vs
-     * {@link #defineVar(String, Object)} is this func not allowed to create new
+     * {@link #defineVar(int, Object)} is this func not allowed to create new
      * variable
      */
     public void assign(Token identifier, Object value) {
-        if (variable.containsKey(identifier.getLexeme())) {
-            variable.put(identifier.getLexeme(), value);
-        } else if (prevEnv != null) {
+        if (variable != null)
+            assignGlobal(globalSlot(identifier), identifier, value);
+        else if (prevEnv != null)
             prevEnv.assign(identifier, value);
-        } else
-            throw new Interpreter().new RuntimeError(identifier,
+        else
+            throw new RuntimeError(identifier,
                     "assignment to undefined variable: " + identifier.getLexeme());
     }
 
+    /**
+     * Same as {@link #assign(Token, Object)}, with the slot from
+     * {@link #globalSlot(Token)}
+     */
+    public void assignGlobal(int slot, Token identifier, Object value) {
+        if (slots[slot] == UNDEFINED)
+            throw new RuntimeError(identifier,
+                    "assignment to undefined variable: " + identifier.getLexeme());
+
+        slots[slot] = value;
+    }
+
     /**
      * Same as {@link #assign(Token, Object)} but different algorithm, using
-     * {@code distance}
+     * {@code slot}
      * <p />
      * <b><i>Example</i></b>
      *
      * <pre>
-     * Integer distance = localVar.get(a);
-     * if (distance != null)
-     *     env.assignAt(distance, a._identifier, rhsResult);
+     * if (a._slot != -1)
+     *     env.assignAt(a._slot, rhsResult);
      * else // you must handle this by yourself
      *     globals.assign(a._identifier, rhsResult);
      * </pre>
+     *
+     * @implNote No distance: {@link Resolver} put every variable of a function
+     *           in its frame, the other ones are upvalues
      */
-    public void assignAt(Integer distance, Token identifier, Object value) {
-        Environment ancestor = ancestor(distance);
-
-        if (ancestor != null) {
-            ancestor.variable.put(identifier.getLexeme(), value);
-        }
-        // else no throw error because we still have globalEnv inside Interpreter
+    public void assignAt(int slot, Object value) {
+        if (slots[slot] instanceof Box box)
+            box.value = value;
+        else
+            slots[slot] = value;
     }
 
     /**
      * Same as {@code get()}
      */
     public Object getValue(Token finding) {
-        if (variable.containsKey(finding.getLexeme()))
-            return variable.get(finding.getLexeme());
+        if (variable != null)
+            return getGlobal(globalSlot(finding), finding);
 
         if (prevEnv != null) {
             return prevEnv.getValue(finding);
         } else
-            throw new Interpreter().new RuntimeError(finding, "undefined variable: " + finding.getLexeme());
+            throw new RuntimeError(finding, "undefined variable: " + finding.getLexeme());
+    }
+
+    /**
+     * Same as {@link #getValue(Token)}, with the slot from
+     * {@link #globalSlot(Token)}
+     */
+    public Object getGlobal(int slot, Token finding) {
+        Object value = slots[slot];
+        if (value == UNDEFINED)
+            throw new RuntimeError(finding, "undefined variable: " + finding.getLexeme());
+
+        return value;
+    }
+
+    /**
+     * Slot of a global in the global scope. A global site look it up once and
+     * keep it, i.e: {@code VarAccess._global}, so later runs skip the hash
+     * lookup
+     * <p />
+     * The slot is reserved even if the global is not defined yet: a function
+     * can use a global defined after it. Reading it before the definition
+     * still throw
+     */
+    public int globalSlot(Token identifier) {
+        return globalSlot(identifier.getSymbol());
+    }
+
+    private int globalSlot(int symbol) {
+        if (symbol >= variable.length) {
+            int old = variable.length;
+            variable = Arrays.copyOf(variable, Math.max(symbol + 1, old * 2));
+            Arrays.fill(variable, old, variable.length, -1);
+        }
+
+        int slot = variable[symbol];
+        if (slot != -1)
+            return slot;
+
+        if (size == slots.length)
+            slots = Arrays.copyOf(slots, size * 2);
+        slots[size] = UNDEFINED;
+        variable[symbol] = size;
+        return size++;
     }
 
     /**
      * Often use in junction with
-     * {@link Interpreter#lookUpVariable(Token, Expression)}
+     * {@link Interpreter#lookUpVariable(Token, int, int)}
      *
-     * @param identifier - Name of the variable store using
-     *                   {@link #defineVar(String, Object)}. Not name of the
-     *                   {@code Token} or {@code Expression}
+     * @param slot - Index of the variable inside the frame, given by
+     *             {@link Resolver}. Not name of the {@code Token} or
+     *             {@code Expression}
      */
-    public Object getAt(Integer distance, String identifier) {
-        Environment ancestor = ancestor(distance);
+    public Object getAt(int slot) {
+        Object value = slots[slot];
+        return (value instanceof Box box) ? box.value : value;
+    }
 
-        if (ancestor != null)
-            return ancestor.variable.get(identifier);
-        return null;
+    /**
+     * Same as {@link #getAt(int)} for a variable captured from an
+     * enclosing function
+     *
+     * @param index - {@code _upvalue} of the node
+     */
+    public Object getUpvalue(int index) {
+        return upvalues[index].value;
     }
 
-    /* ---------------- Helper function -------------------- */
+    public void assignUpvalue(int index, Object value) {
+        upvalues[index].value = value;
+    }
+
+    /**
+     * Upvalues of a function created in this environment
+     *
+     * @param captures - {@code FuncPrototype._captures}, a slot of this frame
+     *                 or {@code -1 - index} of an upvalue. {@code null} if
+     *                 {@link Resolver} stopped before the function
+     */
+    public Box[] capture(int[] captures) {
+        if (captures == null)
+            return null;
 
-    private Environment ancestor(Integer distance) {
-        Environment result = this;
-        for (int counter = distance; counter > 0 && result != null; counter--) {
-            result = result.prevEnv;
+        Box[] result = new Box[captures.length];
+        for (int idx = 0; idx < result.length; idx++) {
+            int slot = captures[idx];
+            result[idx] = (slot >= 0) ? box(slot) : upvalues[-1 - slot];
         }
 
         return result;
     }
+
+    /* ---------------- Helper function -------------------- */
+
+    /**
+     * Move the variable into a {@link Box} the first time it is captured.
+     * {@link #getAt(int)} and {@link #assignAt(int, Object)} then go
+     * through the box, so the frame and the closures share it
+     */
+    private Box box(int slot) {
+        if (slots[slot] instanceof Box box)
+            return box;
+
+        Box box = new Box(slots[slot]);
+        slots[slot] = box;
+        return box;
+    }
+
+    /**
+     * A captured variable, shared by its frame and the closures using it.
+     * Defining the variable again, i.e: the next iteration of a loop, put a
+     * plain value in the slot, so the closures keep the old variable
+     *
+     * @implNote Only a frame slot or {@code Box[] upvalues} hold a box, a box
+     *           is never a Tan value
+     */
+    static final class Box {
+        Object value;
+
+        Box(Object value) {
+            this.value = value;
+        }
+    }
 }
@@ -2,7 +2,6 @@ package src;
 
 import models.Token;
 import models.TokenType;
-import src.Interpreter.RuntimeError;
 
 public class Error {
     private Boolean _errStatus;
@@ -1,16 +1,12 @@
 package src;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
-import src.Tan.TanCallable;
-import src.Tan.TanClass;
-import src.Tan.TanFunction;
-import src.Tan.TanInstance;
+import models.Symbol;
 import models.Token;
+import models.TokenType;
 import static models.TokenType.*;
 import models.Expression;
 import models.Expression.Literal;
@@ -35,27 +31,67 @@ import models.Statement.Return;
 import models.Statement.VarDeclare;
 import models.Statement.If;
 import models.Statement.While;
+import models.Statement.For;
 import models.Statement.FuncPrototype;
 
 public class Interpreter {
     final Environment globals = new Environment();
     private Environment env = globals;
     /**
-     * Same as {@code locals}
+     * {@code null} unless {@code --engine=tiered}
      */
-    private final Map<Expression, Integer> localVar = new HashMap<>();
+    private JIT jit = null;
+    /**
+     * Second result of {@link #number(Expression)}: {@link #NUMBER} if the
+     * operand was a number, else the operand itself
+     */
+    private Object operand = NUMBER;
+    private static final Object NUMBER = new Object();
+    /**
+     * Value of the last {@code return}, valid when {@link #runStatement}
+     * report that it returned
+     */
+    private Object returnValue = null;
+    /**
+     * Returned by a body ending with {@code return f(...)}, see {@link TailCall}
+     */
+    final TailCall tailCall = new TailCall();
+
+    /*
+     * Type feedback, stored in the {@code _state} field of Binary, Unary,
+     * Logical and Call. A node start UNINITIALIZED, specialize itself on the
+     * first run to the operand types it see, and fall back to GENERIC forever
+     * when a different type show up
+     */
+    private static final int UNINITIALIZED = 0;
+    /** Both operands are numbers, evaluated by {@link #number(Expression)} */
+    private static final int DOUBLE = 1;
+    /** Both operands are strings, for {@code + == !=} */
+    private static final int STRING = 2;
+    /** Operand is a Boolean, skip {@link #truthy(Object)} */
+    private static final int BOOLEAN = 3;
+    /** Call site always see the same callee, see {@link #target(Object)} */
+    private static final int MONOMORPHIC = 4;
+    /** {@link For} over a number counter, see {@link #isCounter(For)} */
+    private static final int COUNTER = 5;
+    private static final int GENERIC = 6;
 
     Interpreter() {
-        globals.defineVar("clock", new TanCallable() {
+        globals.defineVar(Symbol.intern("clock"), new TanCallable() {
             @Override
             public int arity() {
                 return 0;
             }
 
             @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
+            public Object call0(Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> args) {
+                return call0(interpreter);
+            }
         });
     }
 
@@ -63,43 +99,207 @@ public class Interpreter {
         runBlock(ASTList, env);
     }
 
+    void enableJIT() {
+        if (jit == null)
+            jit = new JIT(this);
+    }
+
+    /**
+     * Called by {@link TanFunction#call} on every call of an interpreted
+     * function
+     *
+     * @return Compiled body once the function is hot and compiled, else
+     *         {@code null} to keep interpreting
+     */
+    ClosureCompiler.Exec tierUp(FuncPrototype declaration) {
+        return (jit != null) ? jit.entryPoint(declaration) : null;
+    }
+
     /* ---------------- Helper function -------------------- */
 
-    public void runBlock(List<Statement> stmtList, Environment currentEnv) {
+    /**
+     * @return {@code true} if a {@code return} was executed, its value is
+     *         taken by {@link #returnValue()}
+     */
+    public boolean runBlock(List<Statement> stmtList, Environment currentEnv) {
         Environment prevEnv = this.env;
         try {
             this.env = currentEnv; // FOR DEBUG: global scope prevEnv = null
 
             for (Statement stmt : stmtList) {
-                runStatement(stmt);
+                // null = statement with syntax error, skip it
+                if (stmt != null && runStatement(stmt))
+                    return true;
             }
         } catch (RuntimeError e) {
             Tan.err.report(e);
         } finally {
             this.env = prevEnv;
         }
+
+        return false;
     }
 
     /**
+     * {@link For} without the initializer
+     */
+    private boolean runLoop(For f) {
+        while (truthy(switchPattern(f._condition))) {
+            if (runIteration(f))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * {@link For} specialized to {@link #COUNTER}: the loop variable is kept
+     * as a {@code double} between the condition and the iterate. Fall back to
+     * the generic expression when the body put something else in it
+     */
+    private boolean runCounter(For f) {
+        Binary condition = (Binary) f._condition;
+        int slot = ((VarDeclare) f._initializer)._slot;
+        while (true) {
+            boolean isTrue;
+            if (env.getAt(slot) instanceof Double counter) {
+                double limit = number(condition._rhs);
+                if (operand != NUMBER)
+                    throwError(condition._operator,
+                            "exist an operand of '" + condition._operator.getLexeme() + "' is not a number");
+
+                switch (condition._operator.getType()) {
+                    case LESS -> isTrue = counter < limit;
+                    case LESS_EQUAL -> isTrue = counter <= limit;
+                    case MORE -> isTrue = counter > limit;
+                    default -> isTrue = counter >= limit; // MORE_EQUAL
+                }
+            } else {
+                isTrue = truthy(switchPattern(condition));
+            }
+
+            if (!isTrue)
+                return false;
+            if (runIteration(f))
+                return true;
+        }
+    }
+
+    /**
+     * Body then iterate, same as the {@code { body; iterate; }} block the loop
+     * used to be desugared into: a runtime error skip to the next iteration
+     */
+    private boolean runIteration(For f) {
+        if (f._iterate == null)
+            return f._body != null && runStatement(f._body);
+        if (f._body == null) {
+            iterate(f);
+            return false;
+        }
+
+        try {
+            if (runStatement(f._body))
+                return true;
+            iterate(f);
+        } catch (RuntimeError e) {
+            Tan.err.report(e);
+        }
+        return false;
+    }
+
+    private void iterate(For f) {
+        if (f._state == COUNTER && f._iterate instanceof Assign iterate
+                && env.getAt(iterate._slot) instanceof Double counter) {
+            Binary step = (Binary) iterate._value;
+            double delta = (double) ((Literal) step._rhs)._value;
+            env.assignAt(iterate._slot, (step._operator.getType() == PLUS) ? counter + delta : counter - delta);
+            return;
+        }
+
+        switchPattern(f._iterate);
+    }
+
+    /**
+     * {@code for (var i = ...; i < limit; i = i + step)}, with {@code < <= > >=}
+     * and {@code + -} a number literal
+     */
+    private static boolean isCounter(For f) {
+        if (!(f._initializer instanceof VarDeclare variable)
+                || !(f._condition instanceof Binary condition)
+                || !(f._iterate instanceof Assign iterate)
+                || !(iterate._value instanceof Binary step))
+            return false;
+
+        switch (condition._operator.getType()) {
+            case LESS, LESS_EQUAL, MORE, MORE_EQUAL -> {
+            }
+            default -> {
+                return false;
+            }
+        }
+
+        TokenType stepType = step._operator.getType();
+        int slot = variable._slot;
+        return slot != -1
+                && isLoopVariable(condition._lhs, slot)
+                && iterate._slot == slot
+                && isLoopVariable(step._lhs, slot)
+                && (stepType == PLUS || stepType == SUBTRACT)
+                && step._rhs instanceof Literal l && l._value instanceof Double;
+    }
+
+    /**
+     * The variable of the initializer
+     *
+     * @param slot - Its slot, in the loop scope or in the enclosing frame if
+     *             the loop is inlined
+     */
+    private static boolean isLoopVariable(Expression e, int slot) {
+        return e instanceof VarAccess va && va._slot == slot;
+    }
+
+    /**
+     * Take the value of the {@code return} reported by {@link #runBlock}
+     */
+    Object returnValue() {
+        Object value = returnValue;
+        returnValue = null; // Don't keep it alive
+        return value;
+    }
+
+    /**
+     * @return {@code true} if the statement executed a {@code return}. Then
+     *         the enclosing blocks stop and the value is in {@link #returnValue}.
+     *         Same as {@code ClosureCompiler.NORMAL}, but without allocating
      * @implNote Have to code {@code Object result = switchPattern(e._expr);}
      *           because interface doesn't have fields
      */
-    private void runStatement(Statement s) {
+    private boolean runStatement(Statement s) {
         switch (s) {
             case Block b -> {
-                Environment local = new Environment(env);
-                runBlock(b._stmtList, local);
+                if (b._inlined)
+                    return runBlock(b._stmtList, env);
+
+                Environment local = new Environment(env, b._slotCount);
+                return runBlock(b._stmtList, local);
             }
             case VarDeclare vd -> {
                 Object result = null;
                 if (vd._initializer != null) {
                     result = switchPattern(vd._initializer);
                 }
-                env.defineVar(vd._identifier.getLexeme(), result);
+                env.defineVar(vd._identifier.getSymbol(), vd._slot, result);
             }
             case FuncPrototype fp -> {
-                TanFunction func = new Tan().new TanFunction(fp, env, false);
-                env.defineVar(fp._identifier.getLexeme(), func); // add function object
+                // Define before creating the function, so a recursive function
+                // capture its own variable
+                int name = fp._identifier.getSymbol();
+                int slot = env.defineVar(name, fp._slot, null);
+                TanFunction func = new TanFunction(fp, env, false);
+                if (slot < 0)
+                    env.defineVar(name, func); // add function object
+                else
+                    env.assignAt(slot, func);
             }
             case ClassDeclare cd -> {
                 Object superClass = null;
@@ -112,48 +312,74 @@ public class Interpreter {
 
                 // Store in env so that methods inside class can call class itself
                 String className = cd._identifier.getLexeme();
-                env.defineVar(className, null);
+                int classSlot = env.defineVar(cd._identifier.getSymbol(), cd._slot, null);
 
                 // Same as bind function (method) to this in TanFunction
                 // CAUTION: This snippet must put after the snippet above for inherit to work
                 // class B must be in current closure before create new closure for superClass
+                // `super` is a slot of the current frame, methods capture it.
+                // Only a class at top level need an environment for it
+                Environment closure = env;
                 if (cd._superClass != null) {
-                    env = new Environment(env); // newClosure
-                    env.defineVar("super", superClass);
+                    if (!cd._inlined)
+                        closure = new Environment(env, 1); // newClosure
+                    closure.defineVar(Symbol.SUPER, cd._superSlot, superClass);
                 }
 
-                Map<String, TanFunction> methods = new HashMap<>();
+                SymbolMap<TanFunction> methods = new SymbolMap<>();
                 for (FuncPrototype method : cd._methods) {
-                    TanFunction declaration = new Tan().new TanFunction(method, env,
-                            method._identifier.getLexeme().equals("init"));
-                    methods.put(method._identifier.getLexeme(), declaration);
+                    int methodName = method._identifier.getSymbol();
+                    TanFunction declaration = new TanFunction(method, closure, methodName == Symbol.INIT);
+                    methods.put(methodName, declaration);
                 }
 
-                TanClass definition = new Tan().new TanClass(className, (TanClass) superClass, methods);
+                TanClass definition = new TanClass(className, (TanClass) superClass, methods);
 
-                if (superClass != null)
-                    env = env.prevEnv; // exit superClass closure
-
-                env.assign(cd._identifier, definition);
+                if (classSlot < 0)
+                    env.assign(cd._identifier, definition);
+                else
+                    env.assignAt(classSlot, definition);
             }
             case If i -> {
                 if (truthy(switchPattern(i._condition)))
-                    runStatement(i._ifStmt);
+                    return runStatement(i._ifStmt);
                 else if (i._elseStmt != null)
-                    runStatement(i._elseStmt);
-                else
-                    return;
+                    return runStatement(i._elseStmt);
             }
             case While w -> {
-                while (truthy(switchPattern(w._condition)))
-                    runStatement(w._body);
+                while (truthy(switchPattern(w._condition))) {
+                    if (runStatement(w._body))
+                        return true;
+                }
+            }
+            case For f -> {
+                if (f._initializer == null)
+                    return runLoop(f);
+
+                // Same as a Block around the whole loop: one environment for
+                // the loop variable, created once, or none if inlined
+                Environment prevEnv = env;
+                try {
+                    if (!f._inlined)
+                        env = new Environment(env, f._slotCount);
+                    runStatement(f._initializer);
+                    if (f._state == UNINITIALIZED)
+                        f._state = isCounter(f) ? COUNTER : GENERIC;
+
+                    return (f._state == COUNTER) ? runCounter(f) : runLoop(f);
+                } catch (RuntimeError e) {
+                    Tan.err.report(e);
+                } finally {
+                    env = prevEnv;
+                }
             }
             case Return r -> {
                 Object val = null;
                 if (r._returnVal != null)
                     val = switchPattern(r._returnVal);
 
-                throw new ReturnException(val);
+                returnValue = val;
+                return true;
             }
             case Print p -> {
                 Object result = switchPattern(p._expr);
@@ -166,6 +392,8 @@ public class Interpreter {
                 throwError(s, "Statement error");
             }
         }
+
+        return false;
     }
 
     /**
@@ -175,12 +403,16 @@ public class Interpreter {
         switch (e) {
             case Assign a -> {
                 Object rhsResult = switchPattern(a._value);
-                Integer distance = localVar.get(a);
 
-                if (distance != null)
-                    env.assignAt(distance, a._identifier, rhsResult);
-                else
-                    globals.assign(a._identifier, rhsResult);
+                if (a._slot != -1)
+                    env.assignAt(a._slot, rhsResult);
+                else if (a._upvalue != -1)
+                    env.assignUpvalue(a._upvalue, rhsResult);
+                else {
+                    if (a._global == -1)
+                        a._global = globals.globalSlot(a._identifier);
+                    globals.assignGlobal(a._global, a._identifier, rhsResult);
+                }
 
                 return rhsResult;
             }
@@ -192,7 +424,9 @@ public class Interpreter {
                 }
 
                 Object value = switchPattern(s._value);
-                ((TanInstance) obj).set(s._propName, value);
+                if (s._cache == null)
+                    s._cache = new PropertyCache();
+                ((PropertyCache) s._cache).set((TanInstance) obj, s._propName, value);
                 return value;
             }
             case Ternary t -> {
@@ -203,129 +437,142 @@ public class Interpreter {
                 return truthy(lhs) ? rhs_first : rhs_second;
             }
             case Binary b -> {
-                Object lhs = switchPattern(b._lhs);
-                Object rhs = switchPattern(b._rhs);
-
-                switch (b._operator.getType()) {
-                    case NOT_EQUAL:
-                        return !isEqual(lhs, rhs);
-                    case EQUAL_EQUAL:
-                        return isEqual(lhs, rhs);
-                    case MORE:
-                        verifyNumber(b._operator, "exist an operand of '>' is not a number", lhs, rhs);
-                        return (double) lhs > (double) rhs;
-                    case MORE_EQUAL:
-                        verifyNumber(b._operator, "exist an operand of '>=' is not a number", lhs, rhs);
-                        return (double) lhs >= (double) rhs;
-                    case LESS:
-                        verifyNumber(b._operator, "exist an operand of '<' is not a number", lhs, rhs);
-                        return (double) lhs < (double) rhs;
-                    case LESS_EQUAL:
-                        verifyNumber(b._operator, "exist an operand of '<=' is not a number", lhs, rhs);
-                        return (double) lhs <= (double) rhs;
-                    case PLUS:
-                        if (lhs instanceof Double && rhs instanceof Double)
-                            return (double) lhs + (double) rhs;
-                        else if (lhs instanceof String || rhs instanceof String)
-                            return (String) lhs + (String) rhs;
-                        else {
-                            throwError(b._operator,
-                                    "two operand of '+' are not type number or string");
+                switch (b._state) {
+                    case DOUBLE:
+                        return doubleBinary(b);
+                    case STRING:
+                        Object lhs = switchPattern(b._lhs);
+                        Object rhs = switchPattern(b._rhs);
+                        if (lhs instanceof String lhsStr && rhs instanceof String rhsStr) {
+                            switch (b._operator.getType()) {
+                                case PLUS:
+                                    return lhsStr + rhsStr;
+                                case EQUAL_EQUAL:
+                                    return lhsStr.equals(rhsStr);
+                                default: // NOT_EQUAL
+                                    return !lhsStr.equals(rhsStr);
+                            }
                         }
-                    case SUBTRACT:
-                        verifyNumber(b._operator, "exist an operand of '-' is not a number", lhs, rhs);
-                        return (double) lhs - (double) rhs;
-                    case MULTIPLY:
-                        verifyNumber(b._operator, "exist an operand of '*' is not a number", lhs, rhs);
-                        return (double) lhs * (double) rhs;
-                    case DIVIDE:
-                        verifyNumber(b._operator, "exist an operand of '/' is not a number", lhs, rhs);
-                        if ((double) rhs == 0)
-                            throwError(b._operator, "divide by 0");
-
-                        return (double) lhs / (double) rhs;
-                    default:
-                        throwError(b._operator, "unexpected binary operator");
-                        return null;
+
+                        b._state = GENERIC;
+                        return binary(b, lhs, rhs);
+                    case UNINITIALIZED:
+                        lhs = switchPattern(b._lhs);
+                        rhs = switchPattern(b._rhs);
+                        b._state = specialize(b, lhs, rhs);
+                        return binary(b, lhs, rhs);
+                    default: // GENERIC
+                        return binary(b, switchPattern(b._lhs), switchPattern(b._rhs));
                 }
             }
             case Unary u -> {
-                Object rhs = switchPattern(u._expr);
-
                 switch (u._operator.getType()) {
                     case LOGIC_NOT:
-                        return !truthy(rhs);
+                        Object value = switchPattern(u._expr);
+                        if (u._state != BOOLEAN || !(value instanceof Boolean))
+                            u._state = observeBoolean(u._state, value);
+
+                        return (u._state == BOOLEAN) ? !(Boolean) value : !truthy(value);
                     case SUBTRACT:
-                        verifyNumber(u._operator, "operand of unary '-' is not a number", rhs);
-                        return -((double) rhs);
+                        return negate(u);
                     default:
+                        switchPattern(u._expr);
                         throwError(u._operator, "unexpected unary operator");
                         return null;
                 }
             }
             case Call c -> {
-                Object callee = switchPattern(c._funcName);
+                // `obj.method(...)`: call the method with `obj` as `this`,
+                // instead of creating a bound method then calling it
+                Object callee;
+                TanInstance receiver = null;
+                if (c._funcName instanceof Get g) {
+                    TanInstance instance = instance(g);
+                    TanFunction method = cache(g).method(instance, g._propName);
+                    if (method != null) {
+                        callee = method;
+                        receiver = instance;
+                    } else {
+                        callee = cache(g).get(instance, g._propName);
+                    }
+                } else {
+                    callee = switchPattern(c._funcName);
+                }
 
-                List<Object> args = new ArrayList<>();
-                for (Expression arg : c._arguments) {
-                    args.add(switchPattern(arg));
+                int argc = c._arguments.size();
+                Object arg0 = null, arg1 = null, arg2 = null;
+                List<Object> args = null;
+                if (argc > TanCallable.FIXED_ARITY) {
+                    args = new ArrayList<>(argc);
+                    for (Expression arg : c._arguments) {
+                        args.add(switchPattern(arg));
+                    }
+                } else {
+                    if (argc > 0)
+                        arg0 = switchPattern(c._arguments.get(0));
+                    if (argc > 1)
+                        arg1 = switchPattern(c._arguments.get(1));
+                    if (argc > 2)
+                        arg2 = switchPattern(c._arguments.get(2));
                 }
 
-                if (!(callee instanceof TanCallable)) {
-                    throwError(c._closeParen, "function name is not a callable function");
+                // Same callee as last time, arity is already checked
+                if (c._state == MONOMORPHIC && target(callee) == c._target) {
+                    TanCallable function = (TanCallable) callee;
+                    return (c._tail) ? callTail(function, receiver, argc, arg0, arg1, arg2, args)
+                            : call(function, receiver, argc, arg0, arg1, arg2, args);
                 }
 
-                TanCallable function = (TanCallable) callee; // find the function prototype
-                if (function.arity() != args.size()) {
-                    throwError(c._closeParen, "Expected " +
-                            function.arity() + " arguments but got " +
-                            args.size());
+                TanCallable function = callable(c._closeParen, callee, argc);
+                if (c._state == UNINITIALIZED) {
+                    c._state = MONOMORPHIC;
+                    c._target = target(function);
+                } else if (c._state == MONOMORPHIC) {
+                    c._state = GENERIC;
+                    c._target = null;
                 }
 
-                return function.call(this, args);
+                return (c._tail) ? callTail(function, receiver, argc, arg0, arg1, arg2, args)
+                        : call(function, receiver, argc, arg0, arg1, arg2, args);
             }
             case Get g -> {
-                Object obj = switchPattern(g._object);
-
-                if (!(obj instanceof TanInstance)) {
-                    throwError(g._propName, "object is not an instance of class");
-                }
-
-                return ((TanInstance) obj).get(g._propName);
+                return cache(g).get(instance(g), g._propName);
             }
             case Logical l -> {
                 Object lhs = switchPattern(l._lhs);
+                if (l._state != BOOLEAN || !(lhs instanceof Boolean))
+                    l._state = observeBoolean(l._state, lhs);
+                boolean isTrue = (l._state == BOOLEAN) ? (Boolean) lhs : truthy(lhs);
 
                 // Short-circuit
                 if (l._operator.getType() == LOGIC_AND) {
-                    if (!truthy(lhs))
+                    if (!isTrue)
                         return lhs;
                 } else {
-                    if (truthy(lhs))
+                    if (isTrue)
                         return lhs;
                 }
 
                 return switchPattern(l._rhs);
             }
             case VarAccess va -> {
-                return lookUpVariable(va._identifer, va);
+                if (va._slot != -1 || va._upvalue != -1)
+                    return lookUpVariable(va._identifer, va._slot, va._upvalue);
+
+                if (va._global == -1)
+                    va._global = globals.globalSlot(va._identifer);
+                return globals.getGlobal(va._global, va._identifer);
             }
             case Grouping g -> {
                 return switchPattern(g._expr);
             }
             case This th -> {
-                return lookUpVariable(th._keyword, th);
+                return lookUpVariable(th._keyword, th._slot, th._upvalue);
             }
             case Super sp -> {
-                // Same as lookUpVariable, but it returns Object
-                // so have to create manually
-                Integer distance = localVar.get(sp);
-
-                TanClass superClass = (TanClass) env.getAt(distance, "super");
-                // HACK: If subclass inherited superclass, then `this` closure always
-                // HACK: 1 step after `super` closure
-                TanInstance currentThis = (TanInstance) env.getAt(distance - 1, "this");
-                TanFunction method = superClass.findMethod(sp._methodName.getLexeme());
+                TanClass superClass = (TanClass) lookUpVariable(sp._keyword, sp._slot, sp._upvalue);
+                TanInstance currentThis = (TanInstance) switchPattern(sp._self);
+                TanFunction method = superClass.findMethod(sp._methodName.getSymbol());
 
                 if (method == null)
                     throwError(sp._methodName, "Undefined property '" + sp._methodName.getLexeme());
@@ -341,7 +588,7 @@ public class Interpreter {
         }
     }
 
-    private boolean isEqual(Object lhs, Object rhs) {
+    static boolean isEqual(Object lhs, Object rhs) {
         if (lhs == null && rhs == null)
             return true;
         else if (lhs == null) // (rhs != null) or (lhs != null && rhs == null)
@@ -355,7 +602,7 @@ public class Interpreter {
      * - {@code false} and {@code nil} are falsey
      * - everything else is truthy
      */
-    private boolean truthy(Object value) {
+    static boolean truthy(Object value) {
         if (value == null)
             return false;
         else if (value instanceof Boolean)
@@ -364,7 +611,7 @@ public class Interpreter {
             return true;
     }
 
-    private String clean(Object obj) {
+    static String clean(Object obj) {
         String result = Objects.toString(obj, null);
 
         if (result == null)
@@ -377,70 +624,364 @@ public class Interpreter {
         return result;
     }
 
-    private void verifyNumber(Token operator, String message, Object... args) {
-        if (args.length == 1 && args[0] instanceof Double)
-            return;
-        else if (args.length == 2 && args[0] instanceof Double && args[1] instanceof Double)
-            return;
+    /* ---------------- Number function -------------------- */
 
-        throwError(operator, message);
+    /**
+     * Evaluate an operand of an arithmetic or comparison operator as a primitive
+     * {@code double}, so nested arithmetic don't box every intermediate result.
+     * <p />
+     * Don't throw when the operand isn't a number: it set {@link #operand} to
+     * the value instead, and the caller throw after evaluating its other
+     * operand, same order as before
+     *
+     * @implNote Read {@link #operand} right after the call, before evaluating
+     *           anything else
+     */
+    private double number(Expression e) {
+        if (e instanceof Binary b && b._state == DOUBLE) {
+            switch (b._operator.getType()) {
+                case PLUS:
+                case SUBTRACT:
+                case MULTIPLY:
+                case DIVIDE:
+                    return arithmetic(b);
+                default:
+                    break;
+            }
+        } else if (e instanceof Grouping g) {
+            return number(g._expr);
+        } else if (e instanceof Unary u && u._operator.getType() == SUBTRACT) {
+            return negate(u);
+        }
+
+        Object value = switchPattern(e);
+        if (value instanceof Double) {
+            operand = NUMBER;
+            return (double) value;
+        }
+
+        operand = value;
+        return 0;
     }
 
-    /* ---------------- Resolver function -------------------- */
+    /**
+     * {@code + - * /}. Same protocol as {@link #number(Expression)}, because
+     * {@code +} can produce a string
+     */
+    private double arithmetic(Binary b) {
+        double lhs = number(b._lhs);
+        Object lhsValue = operand;
+        double rhs = number(b._rhs);
+        Object rhsValue = operand;
+        boolean isNumber = lhsValue == NUMBER && rhsValue == NUMBER;
+
+        operand = NUMBER;
+        switch (b._operator.getType()) {
+            case PLUS:
+                if (isNumber)
+                    return lhs + rhs;
+
+                // Slow path, need the boxed operands
+                b._state = GENERIC;
+                Object lhsObj = (lhsValue == NUMBER) ? (Object) lhs : lhsValue;
+                Object rhsObj = (rhsValue == NUMBER) ? (Object) rhs : rhsValue;
+                if (lhsObj instanceof String || rhsObj instanceof String) {
+                    operand = (String) lhsObj + (String) rhsObj;
+                    return 0;
+                }
+
+                throwError(b._operator, "two operand of '+' are not type number or string");
+                return 0;
+            case SUBTRACT:
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '-' is not a number");
+                return lhs - rhs;
+            case MULTIPLY:
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '*' is not a number");
+                return lhs * rhs;
+            default: // DIVIDE
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '/' is not a number");
+                if (rhs == 0)
+                    throwError(b._operator, "divide by 0");
+
+                return lhs / rhs;
+        }
+    }
+
+    /**
+     * Evaluate the object of a {@link Get}
+     */
+    private TanInstance instance(Get g) {
+        Object obj = switchPattern(g._object);
+
+        if (!(obj instanceof TanInstance)) {
+            throwError(g._propName, "object is not an instance of class");
+        }
+
+        return (TanInstance) obj;
+    }
+
+    private static PropertyCache cache(Get g) {
+        if (g._cache == null)
+            g._cache = new PropertyCache();
+        return (PropertyCache) g._cache;
+    }
 
     /**
-     * Same as {@code resolve()}
+     * Check {@code callee} before calling it
      */
-    public void storeResolve(Expression expr, int depth) {
-        localVar.put(expr, depth);
+    TanCallable callable(Token closeParen, Object callee, int argc) {
+        if (!(callee instanceof TanCallable)) {
+            throwError(closeParen, "function name is not a callable function");
+        }
+
+        TanCallable function = (TanCallable) callee; // find the function prototype
+        if (function.arity() != argc) {
+            throwError(closeParen, "Expected " +
+                    function.arity() + " arguments but got " +
+                    argc);
+        }
+
+        return function;
     }
 
     /**
-     * @implNote Why prototype must seperate {@code Expression} and
-     *           {@code identifier}?
-     *           <p />
-     *           If code {@code VarAccess}, then we don't have to seperate. But the
-     *           function won't be used for other type of expression. So it must be
-     *           {@code Expression}, but it don't have {@code identifier} field, so
-     *           we have to pass seperately.
+     * Call with evaluated arguments. Up to {@link TanCallable#FIXED_ARITY}
+     * arguments are passed in {@code arg0..arg2}, without a List. More than
+     * that are passed in {@code args}
+     *
+     * @param receiver - {@code this} of a method called directly, else
+     *                 {@code null}
+     * @param args     - {@code null} unless {@code argc > FIXED_ARITY}
      */
-    private Object lookUpVariable(Token identifier, Expression expr) {
-        Integer distance = localVar.get(expr);
+    Object call(TanCallable function, TanInstance receiver, int argc,
+            Object arg0, Object arg1, Object arg2, List<Object> args) {
+        if (receiver != null) {
+            TanFunction method = (TanFunction) function;
+            return (args != null) ? method.invoke(this, receiver, args)
+                    : method.invoke(this, receiver, argc, arg0, arg1, arg2);
+        }
 
-        if (distance != null)
-            return env.getAt(distance, identifier.getLexeme());
-        else
-            return globals.getValue(identifier);
+        if (args != null)
+            return function.call(this, args);
+
+        switch (argc) {
+            case 0:
+                return function.call0(this);
+            case 1:
+                return function.call1(this, arg0);
+            case 2:
+                return function.call2(this, arg0, arg1);
+            default:
+                return function.call3(this, arg0, arg1, arg2);
+        }
     }
 
-    /* ---------------- Error Definition -------------------- */
+    /**
+     * Same as {@link #call} for {@code return f(...)} marked by {@link Resolver}.
+     * A Tan function is not called here: return {@link #tailCall}, so the
+     * {@link TanFunction} of the current body call it after this frame is gone
+     */
+    Object callTail(TanCallable function, TanInstance receiver, int argc,
+            Object arg0, Object arg1, Object arg2, List<Object> args) {
+        if (function instanceof TanFunction callee)
+            return tailCall.set(callee, receiver, argc, arg0, arg1, arg2, args);
+
+        return call(function, receiver, argc, arg0, arg1, arg2, args);
+    }
+
+    /**
+     * {@link Binary} specialized to {@link #DOUBLE}
+     */
+    private Object doubleBinary(Binary b) {
+        switch (b._operator.getType()) {
+            case PLUS:
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+                double result = arithmetic(b);
+                // Boundary: box only the final result
+                return (operand == NUMBER) ? (Object) result : operand;
+            case MORE:
+            case MORE_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return compare(b);
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                double lhs = number(b._lhs);
+                Object lhsValue = operand;
+                double rhs = number(b._rhs);
+                Object rhsValue = operand;
+                if (lhsValue == NUMBER && rhsValue == NUMBER) {
+                    // Same as Double.equals(), so NaN == NaN like before
+                    boolean equal = Double.compare(lhs, rhs) == 0;
+                    return (b._operator.getType() == EQUAL_EQUAL) ? equal : !equal;
+                }
 
-    public class RuntimeError extends RuntimeException {
-        final Token token;
-        final Expression expr;
-        final Statement stmt;
+                b._state = GENERIC;
+                return binary(b, (lhsValue == NUMBER) ? (Object) lhs : lhsValue,
+                        (rhsValue == NUMBER) ? (Object) rhs : rhsValue);
+            default:
+                return binary(b, switchPattern(b._lhs), switchPattern(b._rhs));
+        }
+    }
 
-        RuntimeError(Token operator, String message) {
-            super(message);
-            token = operator;
-            expr = null;
-            stmt = null;
+    /**
+     * Generic {@link Binary} on evaluated operands
+     */
+    private Object binary(Binary b, Object lhs, Object rhs) {
+        TokenType type = b._operator.getType();
+        switch (type) {
+            case NOT_EQUAL:
+                return !isEqual(lhs, rhs);
+            case EQUAL_EQUAL:
+                return isEqual(lhs, rhs);
+            case PLUS:
+                if (lhs instanceof Double lhsNum && rhs instanceof Double rhsNum)
+                    return lhsNum + rhsNum;
+                if (lhs instanceof String || rhs instanceof String)
+                    return (String) lhs + (String) rhs;
+
+                throwError(b._operator, "two operand of '+' are not type number or string");
+                return null;
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+            case MORE:
+            case MORE_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                if (!(lhs instanceof Double && rhs instanceof Double))
+                    throwError(b._operator, "exist an operand of '" + b._operator.getLexeme() + "' is not a number");
+                break;
+            default:
+                throwError(b._operator, "unexpected binary operator");
+                return null;
         }
 
-        RuntimeError(Expression expression, String message) {
-            super(message);
-            token = null;
-            expr = expression;
-            stmt = null;
+        double lhsNum = (double) lhs, rhsNum = (double) rhs;
+        switch (type) {
+            case SUBTRACT:
+                return lhsNum - rhsNum;
+            case MULTIPLY:
+                return lhsNum * rhsNum;
+            case DIVIDE:
+                if (rhsNum == 0)
+                    throwError(b._operator, "divide by 0");
+                return lhsNum / rhsNum;
+            case MORE:
+                return lhsNum > rhsNum;
+            case MORE_EQUAL:
+                return lhsNum >= rhsNum;
+            case LESS:
+                return lhsNum < rhsNum;
+            default: // LESS_EQUAL
+                return lhsNum <= rhsNum;
         }
+    }
+
+    /**
+     * State of a {@link Binary} after its first run
+     */
+    private static int specialize(Binary b, Object lhs, Object rhs) {
+        if (lhs instanceof Double && rhs instanceof Double)
+            return DOUBLE;
+
+        switch (b._operator.getType()) {
+            case PLUS:
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                if (lhs instanceof String && rhs instanceof String)
+                    return STRING;
+            default:
+                return GENERIC;
+        }
+    }
+
+    /**
+     * Stay {@link #BOOLEAN} as long as every value is a Boolean
+     */
+    private static int observeBoolean(int state, Object value) {
+        if (state == GENERIC)
+            return GENERIC;
+
+        return (value instanceof Boolean) ? BOOLEAN : GENERIC;
+    }
+
+    /**
+     * Key of a monomorphic {@link Call}. Functions are compared by declaration,
+     * because every bound method is a new {@link TanFunction}
+     */
+    private static Object target(Object callee) {
+        return (callee instanceof TanFunction function) ? function.declaration() : callee;
+    }
 
-        RuntimeError(Statement statement, String message) {
-            super(message);
-            token = null;
-            expr = null;
-            stmt = statement;
+    /**
+     * {@code > >= < <=}
+     */
+    private boolean compare(Binary b) {
+        double lhs = number(b._lhs);
+        Object lhsValue = operand;
+        double rhs = number(b._rhs);
+        boolean isNumber = lhsValue == NUMBER && operand == NUMBER;
+
+        switch (b._operator.getType()) {
+            case MORE:
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '>' is not a number");
+                return lhs > rhs;
+            case MORE_EQUAL:
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '>=' is not a number");
+                return lhs >= rhs;
+            case LESS:
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '<' is not a number");
+                return lhs < rhs;
+            default: // LESS_EQUAL
+                if (!isNumber)
+                    throwError(b._operator, "exist an operand of '<=' is not a number");
+                return lhs <= rhs;
         }
-    };
+    }
+
+    /**
+     * Unary {@code -}
+     */
+    private double negate(Unary u) {
+        double value = number(u._expr);
+        if (operand != NUMBER)
+            throwError(u._operator, "operand of unary '-' is not a number");
+
+        return -value;
+    }
+
+    /* ---------------- Resolver function -------------------- */
+
+    /**
+     * @param slot    - Filled by {@link Resolver}, slot in the frame of the
+     *                running function. {@code -1} means the variable is
+     *                global or an upvalue
+     * @param upvalue - Index in the upvalues of the running function, or
+     *                {@code -1}
+     * @implNote Why prototype must seperate {@code slot} and {@code identifier}?
+     *           <p />
+     *           {@code VarAccess} and {@code This} store them in different
+     *           fields, so we have to pass seperately.
+     */
+    private Object lookUpVariable(Token identifier, int slot, int upvalue) {
+        if (slot != -1)
+            return env.getAt(slot);
+        else if (upvalue != -1)
+            return env.getUpvalue(upvalue);
+        else
+            return globals.getValue(identifier);
+    }
+
+    /* ---------------- Error Definition -------------------- */
 
     /**
      * Wrapper for {@code throw new RuntimeError()}
@@ -462,13 +1003,4 @@ public class Interpreter {
     private void throwError(Statement statement, String message) {
         throw new RuntimeError(statement, message);
     }
-
-    public class ReturnException extends RuntimeException {
-        final Object value;
-
-        ReturnException(Object value) {
-            super(null, null, false, false); // HACK: Turn off RuntimeException JVM flag
-            this.value = value;
-        }
-    }
 }
@@ -0,0 +1,72 @@
+package src;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import models.Statement.FuncPrototype;
+
+/**
+ * Tiered execution. Every function start in {@link Interpreter}. After
+ * {@link #THRESHOLD} calls, its body is compiled by {@link ClosureCompiler} on
+ * a background thread, then {@link TanFunction#call} switch to the
+ * compiled body.
+ * <p />
+ * The compiled lambdas are ordinary JVM classes, so HotSpot profile and inline
+ * them like any Java code.
+ * <p />
+ * Select with {@code --engine=tiered}
+ *
+ * @implNote Compile to lambdas instead of emitting JVM bytecode directly:
+ *           {@code java.lang.classfile} doesn't exist before JDK 22, and this
+ *           project has no bytecode library
+ */
+class JIT {
+    static final int THRESHOLD = 1000;
+
+    private final ClosureCompiler compiler;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "tan-jit");
+        thread.setDaemon(true); // don't keep the program alive
+        return thread;
+    });
+
+    JIT(Interpreter interpreter) {
+        this.compiler = new ClosureCompiler(interpreter);
+    }
+
+    /**
+     * Count the call, and send the function to compile when it become hot
+     *
+     * @return Compiled body, or {@code null} if it's not ready yet
+     */
+    ClosureCompiler.Exec entryPoint(FuncPrototype declaration) {
+        Profile profile = (Profile) declaration._profile;
+        if (profile == null) {
+            profile = new Profile();
+            declaration._profile = profile;
+        }
+
+        ClosureCompiler.Exec compiled = profile.compiled;
+        if (compiled == null && ++profile.callCount == THRESHOLD) {
+            Profile hot = profile;
+            worker.execute(() -> hot.compiled = compiler.body(declaration._blockStmt));
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Stored in {@code FuncPrototype._profile}, shared by every
+     * {@link TanFunction} created from the same declaration
+     */
+    static class Profile {
+        /**
+         * Only touched by the interpreter thread
+         */
+        int callCount = 0;
+        /**
+         * Written by the background thread
+         */
+        volatile ClosureCompiler.Exec compiled = null;
+    }
+}
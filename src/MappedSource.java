@@ -0,0 +1,61 @@
+package src;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Source file mapped in memory, read by {@link Scanner} without copying it to
+ * a {@code String} first
+ * <p />
+ * Each {@code char} is one byte of the file. Every character the scanner look
+ * at is ASCII, and a UTF-8 multi-byte character never contain an ASCII byte,
+ * so offsets and line numbers are the same as scanning the decoded text. Only
+ * the text of a token is decoded, by {@link #subSequence}
+ *
+ * @implNote The mapping stay valid after the channel is closed, until the
+ *           buffer is garbage collected
+ */
+class MappedSource implements CharSequence {
+    private final MappedByteBuffer bytes;
+
+    /**
+     * @throws IOException If the file can't be read or is bigger than 2GB
+     */
+    MappedSource(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("source file is too big: " + file);
+
+            this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    /**
+     * @return Bytes from {@code start} to {@code end} decoded as UTF-8
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        byte[] text = new byte[end - start];
+        bytes.get(start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length());
+    }
+}
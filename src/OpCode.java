@@ -0,0 +1,94 @@
+package src;
+
+/**
+ * Instruction set of {@link VM}. Operands follow the opcode in
+ * {@link Chunk#code}, each operand take 1 slot
+ *
+ * @implNote Use {@code int} constants instead of {@code enum} so the dispatch
+ *           loop compile to a single {@code tableswitch}
+ */
+final class OpCode {
+    /** {@code [index]} push {@code constants[index]} */
+    static final int CONSTANT = 0;
+    static final int NIL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+    /** {@code [slot]} */
+    static final int GET_LOCAL = 5;
+    /** {@code [slot]} value stay on stack */
+    static final int SET_LOCAL = 6;
+    /** {@code [name]} */
+    static final int GET_GLOBAL = 7;
+    /** {@code [name]} */
+    static final int DEFINE_GLOBAL = 8;
+    /** {@code [name]} value stay on stack */
+    static final int SET_GLOBAL = 9;
+    /** {@code [index]} */
+    static final int GET_UPVALUE = 10;
+    /** {@code [index]} value stay on stack */
+    static final int SET_UPVALUE = 11;
+    /** {@code [name]} */
+    static final int GET_PROPERTY = 12;
+    /** {@code [name]} */
+    static final int SET_PROPERTY = 13;
+    /** {@code [name]} pop superclass and {@code this}, push bound method */
+    static final int GET_SUPER = 14;
+    static final int EQUAL = 15;
+    static final int NOT_EQUAL = 16;
+    static final int MORE = 17;
+    static final int MORE_EQUAL = 18;
+    static final int LESS = 19;
+    static final int LESS_EQUAL = 20;
+    static final int ADD = 21;
+    static final int SUBTRACT = 22;
+    static final int MULTIPLY = 23;
+    static final int DIVIDE = 24;
+    static final int NOT = 25;
+    static final int NEGATE = 26;
+    /** Ternary. Pop condition, first, second. Push first or second */
+    static final int SELECT = 27;
+    static final int PRINT = 28;
+    /** {@code [offset]} */
+    static final int JUMP = 29;
+    /** {@code [offset]} condition stay on stack */
+    static final int JUMP_IF_FALSE = 30;
+    /** {@code [offset]} jump backward */
+    static final int LOOP = 31;
+    /** {@code [argCount]} */
+    static final int CALL = 32;
+    /** {@code [function, (isLocal, index) * upvalueCount]} */
+    static final int CLOSURE = 33;
+    static final int CLOSE_UPVALUE = 34;
+    static final int RETURN = 35;
+    /** {@code [name, hasSuperClass]} */
+    static final int CLASS = 36;
+    /** {@code [name]} pop closure, add to class on top of stack */
+    static final int METHOD = 37;
+    /**
+     * {@code [offset]} begin a block. If a runtime error happen inside, report
+     * it then continue at {@code offset}. Same as the {@code try/catch} inside
+     * {@link Interpreter#runBlock}
+     */
+    static final int PUSH_HANDLER = 38;
+    static final int POP_HANDLER = 39;
+
+    private OpCode() {
+    }
+
+    /**
+     * @param operand - First operand, only {@link #CALL} need it
+     * @return How many values the instruction push, negative when it pop
+     */
+    static int stackEffect(int opCode, int operand) {
+        return switch (opCode) {
+            case CONSTANT, NIL, TRUE, FALSE, GET_LOCAL, GET_GLOBAL, GET_UPVALUE, CLOSURE, CLASS -> 1;
+            case POP, DEFINE_GLOBAL, SET_PROPERTY, GET_SUPER, EQUAL, NOT_EQUAL, MORE, MORE_EQUAL, LESS,
+                    LESS_EQUAL, ADD, SUBTRACT, MULTIPLY, DIVIDE, PRINT, CLOSE_UPVALUE, RETURN, METHOD ->
+                -1;
+            case SELECT -> -2;
+            case CALL -> -operand; // pop the callee and the arguments, push the result
+            default -> 0;
+        };
+    }
+}
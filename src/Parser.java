@@ -28,24 +28,29 @@ import models.Statement.Print;
 import models.Statement.Return;
 import models.Statement.VarDeclare;
 import models.Statement.While;
+import models.Statement.For;
 import models.Statement.If;
 import models.Statement.FuncPrototype;
 import models.Statement.ClassDeclare;
 
 public class Parser {
     /**
-     * @implNote tokenList from Tan.java (using Scanner.java)
+     * Tokens are pulled from here while parsing, instead of scanning the whole
+     * source first
+     *
      * @see {@link src.Tan#run}
      */
-    private final List<Token> tokenList;
+    private final TokenBuffer tokens;
+    /**
+     * {@link #getToken(int)} look 1 token back, and {@code return} step back
+     * once more
+     */
+    private static final int HISTORY = 2;
     private int current = 0;
 
     // constructor
-    Parser(List<Token> tokenList) {
-        this.tokenList = tokenList;
-        // for (Token token : tokenList) { // TEST
-        // System.out.println(token);
-        // }
+    Parser(Scanner scanner) {
+        this.tokens = new TokenBuffer(scanner);
     }
 
     public List<Statement> getAST() {
@@ -150,7 +155,7 @@ public class Parser {
 
         // NOTE: No need panicError block syntax as it's handled inside `block()`
         // or `classDeclare()`
-        if (getToken(1).getType() != RIGHT_BRACE) {
+        if (getType(1) != RIGHT_BRACE) {
             panicError(SEMI_COLON, "expect ';' at the end of " + kind + " body");
         }
 
@@ -192,7 +197,7 @@ public class Parser {
             Statement ifStmt = statement();
             // NOTE: No need panicError block syntax as it's handled inside `block()`
             // NOTE: Check if "pass over SEMI_COLON" is handled by different function
-            if (getToken(1).getType() != RIGHT_BRACE) {
+            if (getType(1) != RIGHT_BRACE) {
                 // CAUTION: Hotfix - Pass over SEMI_COLON if statement is not a block
                 // ++current;
                 panicError(SEMI_COLON, "expect ';' at the end of statement");
@@ -234,24 +239,13 @@ public class Parser {
                 body = statement();
             }
 
-            // Syntactic Sugar-ize
             if (condition == null) {
                 condition = new Literal(true);
             }
-            if (iterate != null) {
-                // NOTE: If body == null
-                // No need a block, also that will cause Interpreter create new environment
-                // which means empty body can't access outer scope variable
-                // See testcase `for_2.txt`
-                body = (body == null) ? new Expr(iterate)
-                        : new Block(Arrays.asList(body, new Expr(iterate)));
-            }
-            body = new While(condition, body);
-            if (initializer != null) {
-                body = new Block(Arrays.asList(initializer, body));
-            }
 
-            return body;
+            // NOTE: Not desugared to While anymore, so the loop scope is
+            // created once instead of a Block per iteration
+            return new For(initializer, condition, iterate, body);
         } else if (matchAtLeast(PRINT)) {
             Expression expr = expression(); // CAUTION: Hot-fix - With PrintStatement, need to pass over token Print
             return new Print(expr);
@@ -519,22 +513,25 @@ public class Parser {
     }
 
     /**
-     * Peek forward {@link #tokenList} to see if there exists a token
+     * Peek forward the tokens to see if there exists a token
      *
      * @implNote This function is totally different from
      *           {@link #matchAtLeast(TokenType...)}
+     * @implNote Pull tokens up to the match, usually the next one. After a
+     *           syntax error it may hold the rest of the source in
+     *           {@link #tokens}
      */
     private boolean matchPeek(TokenType type) {
         int temp = (current == 0) ? 0 : current;
 
-        TokenType nextToken = tokenList.get(temp).getType();
+        TokenType nextToken = tokens.type(temp);
 
         // CAUTION: Don't use do-while
         // Edge case: When current == list.size => do before while cause
         // current out-of-bound
         while (nextToken != EOF && nextToken != type) {
             ++temp;
-            nextToken = tokenList.get(temp).getType();
+            nextToken = tokens.type(temp);
         }
 
         return nextToken != EOF;
@@ -544,8 +541,10 @@ public class Parser {
      * @implNote Often use in conjuction with {@link #nextToken()}
      */
     private Token advance() {
-        if (!endOfFile())
+        if (!endOfFile()) {
             current++; // NOTE: This cause coupling between advance() and getToken()
+            tokens.release(current - HISTORY);
+        }
         return prevToken();
     }
 
@@ -572,7 +571,7 @@ public class Parser {
      * Same as {@code check()}
      */
     private boolean isNextToken(TokenType expected) {
-        return !endOfFile() ? nextToken().getType() == expected : false;
+        return !endOfFile() ? getType(1) == expected : false;
     }
 
     /**
@@ -581,10 +580,22 @@ public class Parser {
      *               current++ before {@link #getToken(int)}
      */
     private Token getToken(int offset) {
+        return tokens.token(index(offset));
+    }
+
+    /**
+     * Same as {@code getToken(offset).getType()}, without creating the
+     * {@code Token}
+     */
+    private TokenType getType(int offset) {
+        return tokens.type(index(offset));
+    }
+
+    private int index(int offset) {
         if (current == 0)
-            return tokenList.get(0);
+            return 0;
 
-        return tokenList.get(current - 1 + offset);
+        return current - 1 + offset;
     }
 
     /**
@@ -593,7 +604,7 @@ public class Parser {
      */
     private boolean endOfFile() {
         // return current == tokenList.size();
-        return getToken(0).getType() == EOF;
+        return getType(0) == EOF;
     }
 
     private void synchronize() {
@@ -602,7 +613,7 @@ public class Parser {
         // current out-of-bound
         advance(); // pass over the token which cause ParseError
         while (!endOfFile()) {
-            switch (nextToken().getType()) {
+            switch (getType(1)) {
                 case SEMI_COLON:
                 case CLASS:
                 case FUNCTION:
@@ -661,7 +672,7 @@ public class Parser {
      *
      */
     private void panicError(TokenType expected, String message) {
-        if (prevToken().getType() == expected || matchPeek(expected)) // NOTE: Use `prevToken` for case `advance()` run
+        if (getType(0) == expected || matchPeek(expected)) // NOTE: Use `prevToken` for case `advance()` run
                                                                       // before
             advance(); // = continue parsing
         else
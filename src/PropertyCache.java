@@ -0,0 +1,120 @@
+package src;
+
+import models.Token;
+
+/**
+ * Inline cache of one {@code Get} or {@code Set} site. Remember what the
+ * lookup found for the last {@link #LIMIT} shapes, so a hit is one shape
+ * compare plus an array load.
+ * <p />
+ * A site which see more shapes than that is megamorphic: the cache stop
+ * filling up and every access do the full lookup.
+ *
+ * @implNote A shape belong to a single class (see {@link Shape}), so it also
+ *           decide the method found by {@link TanClass#findMethod}
+ */
+class PropertyCache {
+    static final int LIMIT = 4;
+
+    private final Shape[] shapes = new Shape[LIMIT];
+    /**
+     * Field slot, or {@code -1} when the entry is a method
+     */
+    private final int[] slots = new int[LIMIT];
+    /**
+     * {@code Get}: the method. Unused by {@code Set}
+     */
+    private final TanFunction[] methods = new TanFunction[LIMIT];
+    /**
+     * {@code Set}: shape after adding the field, or {@code null} when the field
+     * already exist. Unused by {@code Get}
+     */
+    private final Shape[] transitions = new Shape[LIMIT];
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    Object get(TanInstance instance, Token propName) {
+        int idx = lookup(instance, propName);
+        if (idx == -1)
+            return instance.get(propName);
+
+        int slot = slots[idx];
+        return (slot != -1) ? instance.fields[slot] : methods[idx].bind(instance);
+    }
+
+    /**
+     * For {@code obj.method(...)}: the method without binding it
+     *
+     * @return {@code null} if the property is a field or is undefined, then
+     *         use {@link #get}
+     */
+    TanFunction method(TanInstance instance, Token propName) {
+        int idx = lookup(instance, propName);
+        if (idx != -1)
+            return methods[idx];
+
+        int field = propName.getSymbol();
+        return (instance.shape.slotOf(field) == -1) ? instance._class.findMethod(field) : null;
+    }
+
+    /**
+     * @return Index of the entry for the shape of {@code instance}, or
+     *         {@code -1} if the site is megamorphic or the property is
+     *         undefined
+     */
+    private int lookup(TanInstance instance, Token propName) {
+        Shape shape = instance.shape;
+        for (int idx = 0; idx < count; idx++) {
+            if (shapes[idx] == shape)
+                return idx;
+        }
+
+        if (megamorphic)
+            return -1;
+
+        int field = propName.getSymbol();
+        int slot = shape.slotOf(field);
+        TanFunction method = (slot == -1) ? instance._class.findMethod(field) : null;
+        if ((slot == -1 && method == null) || !add(shape))
+            return -1;
+
+        slots[count - 1] = slot;
+        methods[count - 1] = method;
+        return count - 1;
+    }
+
+    void set(TanInstance instance, Token propName, Object value) {
+        Shape shape = instance.shape;
+        for (int idx = 0; idx < count; idx++) {
+            if (shapes[idx] == shape) {
+                if (transitions[idx] != null)
+                    instance.grow(transitions[idx]);
+
+                instance.fields[slots[idx]] = value;
+                return;
+            }
+        }
+
+        instance.set(propName, value);
+        if (!megamorphic && add(shape)) {
+            // Field slots never move, so the slot in the new shape is the
+            // slot in every instance coming from the same old shape
+            int slot = instance.shape.slotOf(propName.getSymbol());
+            slots[count - 1] = slot;
+            transitions[count - 1] = (instance.shape != shape) ? instance.shape : null;
+        }
+    }
+
+    /**
+     * @return {@code false} if the cache is full, then it become megamorphic
+     */
+    private boolean add(Shape shape) {
+        if (count == LIMIT) {
+            megamorphic = true;
+            return false;
+        }
+
+        shapes[count++] = shape;
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package src;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Source read from a {@link Reader} while {@link Scanner} goes, so a piped
+ * input is never held in memory as a whole. Only the chars from the start of
+ * the current token on are kept, see {@link #discardBefore(int)}
+ * <p />
+ * Indices are counted from the beginning of the input, same as a
+ * {@code String} source
+ */
+class ReaderSource implements CharSequence {
+    /**
+     * Scanner look at most 2 chars after the last one it read
+     */
+    private static final int LOOKAHEAD = 4;
+
+    private final Reader reader;
+    private char[] buffer = new char[8192];
+    /**
+     * Index of {@code buffer[0]} in the input
+     */
+    private int base = 0;
+    private int count = 0;
+    private boolean eof = false;
+    /**
+     * Chars before this index are not needed anymore
+     */
+    private int mark = 0;
+    /**
+     * Highest index asked by {@link #charAt(int)}
+     */
+    private int furthest = -1;
+
+    ReaderSource(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Chars before {@code index} can be dropped, it's the start of the next
+     * token
+     */
+    void discardBefore(int index) {
+        mark = index;
+    }
+
+    /**
+     * @return Length of the input once the reader reach its end, else
+     *         {@link Integer#MAX_VALUE}
+     * @implNote Read {@link #LOOKAHEAD} chars past what the scanner has seen,
+     *           so the end is known before the scanner ask for it
+     */
+    @Override
+    public int length() {
+        fill(furthest + LOOKAHEAD);
+        return eof ? base + count : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public char charAt(int index) {
+        furthest = Math.max(furthest, index);
+        fill(index);
+        if (index < base || index >= base + count)
+            throw new IndexOutOfBoundsException(index);
+
+        return buffer[index - base];
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        fill(end - 1);
+        return new String(buffer, start - base, end - start);
+    }
+
+    /**
+     * Read until {@code index} is in the buffer or the input end
+     */
+    private void fill(int index) {
+        while (!eof && index >= base + count) {
+            if (count == buffer.length) {
+                int drop = mark - base;
+                if (drop > 0) {
+                    System.arraycopy(buffer, drop, buffer, 0, count - drop);
+                    base += drop;
+                    count -= drop;
+                }
+                // Token almost as long as the buffer
+                if (count > buffer.length / 2)
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+
+            try {
+                int read = reader.read(buffer, count, buffer.length - count);
+                if (read == -1)
+                    eof = true;
+                else
+                    count += read;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
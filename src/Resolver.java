@@ -1,10 +1,10 @@
 package src;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 
+import models.Symbol;
 import models.Token;
 import models.Expression;
 import models.Expression.Literal;
@@ -29,28 +29,30 @@ import models.Statement.Return;
 import models.Statement.VarDeclare;
 import models.Statement.If;
 import models.Statement.While;
+import models.Statement.For;
 import models.Statement.FuncPrototype;
 
 public class Resolver {
-    private final Interpreter interpreter;
     /**
      * <i>implNote</i>:
      * <p />
-     * The second field of {@code Map}, {@code Boolean} is a flag.
+     * {@link Scope#variables} map a {@link Symbol} to {@link Local}, which keep
+     * the slot of the variable inside its scope and a flag {@code defined},
      * {@code false} when the variable just <b><i>declared</i></b>.
-     * <p />
-     * Must use {@code Boolean} primitive instead of {@code boolean}
-     * because {@code Map} don't accept {@code boolean} as a generic
      */
-    private final Stack<Map<String, Boolean>> scopeStack = new Stack<>();
+    private final Stack<Scope> scopeStack = new Stack<>();
+    /**
+     * Resolved variables and declarations of the current outermost local scope.
+     * Their slots are known only once the scope end, see {@link #layout(Scope)}
+     */
+    private final List<Use> uses = new ArrayList<>();
     /**
      * Invalid return handling. See page 187.
      */
     private FuncType currentFunction = FuncType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver() {
     }
 
     public void run(List<Statement> ASTList) {
@@ -58,6 +60,11 @@ public class Resolver {
             resolve(ASTList);
         } catch (ResolveError e) {
             Tan.err.report(e.identifier, e.getMessage());
+
+            // Execution continue anyway, so the nodes resolved so far still
+            // need their slots
+            while (!scopeStack.isEmpty())
+                endScope();
         }
     }
 
@@ -66,7 +73,7 @@ public class Resolver {
     private void runStatement(Statement s) {
         switch (s) {
             case Block b -> {
-                beginScope();
+                beginScope(ScopeType.BLOCK, b);
                 resolve(b._stmtList);
                 endScope();
             }
@@ -79,7 +86,7 @@ public class Resolver {
                  * var a = a;
                  * }
                  */
-                declare(vd._identifier); // == prototype
+                declare(vd, vd._identifier); // == prototype
 
                 if (vd._initializer != null) {
                     resolve(vd._initializer);
@@ -88,7 +95,7 @@ public class Resolver {
                 define(vd._identifier);
             }
             case FuncPrototype fp -> {
-                declare(fp._identifier); // == prototype
+                declare(fp, fp._identifier); // == prototype
                 define(fp._identifier);
 
                 resolveFunction(fp, FuncType.FUNCTION);
@@ -101,10 +108,10 @@ public class Resolver {
                 // CAUTION: stack so scopeStack.peek() will not be the same between scopes
                 // Map<String, Boolean> currentStack = scopeStack.peek();
 
-                declare(cd._identifier);
+                declare(cd, cd._identifier);
                 define(cd._identifier);
                 if (cd._superClass != null) {// Superclass possible to be a local variable
-                    if (cd._superClass._identifer.getLexeme().equals(cd._identifier.getLexeme()))
+                    if (cd._superClass._identifer.getSymbol() == cd._identifier.getSymbol())
                         throwError(cd._identifier, "A class can't inherit from itself");
 
                     resolve(cd._superClass);
@@ -114,25 +121,20 @@ public class Resolver {
                 /* begin `super` scope */
                 if (cd._superClass != null) {
                     currentClass = ClassType.SUBCLASS;
-                    beginScope();
-                    scopeStack.peek().put("super", true);
+                    beginScope(ScopeType.SUPER, cd);
+                    scopeStack.peek().add(Symbol.SUPER);
                 }
 
-                /* begin `this` scope */
-                beginScope();
-                scopeStack.peek().put("this", true);
-
+                // `this` is not a scope of its own: it's slot 0 of every
+                // method frame, see resolveFunction()
                 for (FuncPrototype method : cd._methods) {
                     FuncType declaration = FuncType.METHOD;
-                    if (method._identifier.getLexeme().equals("init"))
+                    if (method._identifier.getSymbol() == Symbol.INIT)
                         declaration = FuncType.INITIALIZER;
 
                     resolveFunction(method, declaration);
                 }
 
-                endScope();
-                /* end `this` scope */
-
                 if (cd._superClass != null)
                     endScope();
                 /* end `super` scope */
@@ -149,6 +151,23 @@ public class Resolver {
                 resolve(w._condition);
                 resolve(w._body);
             }
+            case For f -> {
+                // The loop variable get a scope only if there is an initializer,
+                // same as Interpreter
+                if (f._initializer != null) {
+                    beginScope(ScopeType.BLOCK, f);
+                    resolve(f._initializer);
+                }
+
+                resolve(f._condition);
+                if (f._body != null)
+                    resolve(f._body);
+                if (f._iterate != null)
+                    resolve(f._iterate);
+
+                if (f._initializer != null)
+                    endScope();
+            }
             case Return r -> {
                 if (currentFunction == FuncType.NONE)
                     throwError(r._keyword, "Can't return from top-level code");
@@ -157,6 +176,12 @@ public class Resolver {
                     if (currentFunction == FuncType.INITIALIZER)
                         throwError(r._keyword, "Can't return a value from class initializer");
 
+                    // `return f(...)`: nothing left to do after the call, so
+                    // the caller frame can be dropped, see TailCall
+                    if (r._returnVal instanceof Call c
+                            && (currentFunction == FuncType.FUNCTION || currentFunction == FuncType.METHOD))
+                        c._tail = true;
+
                     resolve(r._returnVal);
                 }
             }
@@ -181,7 +206,7 @@ public class Resolver {
             case Assign a -> {
                 // Right-to-left
                 resolve(a._value);
-                resolveVariable(a, a._identifier);
+                resolveVariable(a, a._identifier.getSymbol());
             }
             case Set s -> {
                 // Right-to-left
@@ -217,11 +242,12 @@ public class Resolver {
             }
             case VarAccess va -> {
                 Token identifier = va._identifer;
-                if (!scopeStack.isEmpty() && scopeStack.peek().get(identifier.getLexeme()) == Boolean.FALSE) {
+                if (!scopeStack.isEmpty() && scopeStack.peek().variables.containsKey(identifier.getSymbol())
+                        && !scopeStack.peek().variables.get(identifier.getSymbol()).defined) {
                     throwError(identifier, "Can't read local variable in its own initializer");
                 }
 
-                resolveVariable(va, identifier);
+                resolveVariable(va, identifier.getSymbol());
             }
             case Grouping g -> {
                 resolve(g._expr);
@@ -231,7 +257,7 @@ public class Resolver {
                     throwError(th._keyword, "Can't use this outside class");
                 }
 
-                resolveVariable(th, th._keyword);
+                resolveVariable(th, Symbol.THIS);
             }
             case Super sp -> {
                 if (currentClass == ClassType.CLASS)
@@ -239,7 +265,10 @@ public class Resolver {
                 else if (currentClass == ClassType.NONE)
                     throwError(sp._keyword, "Can't use super outside class");
 
-                resolveVariable(sp, sp._keyword);
+                resolveVariable(sp, Symbol.SUPER);
+                // The method need its `this` too, maybe as an upvalue
+                sp._self = new This(sp._keyword);
+                resolveVariable(sp._self, Symbol.THIS);
             }
             case Literal l -> {
                 // nothing
@@ -252,28 +281,60 @@ public class Resolver {
 
     /* ---------------- Scope Helper function -------------------- */
 
-    private void beginScope() {
-        scopeStack.push(new HashMap<String, Boolean>());
+    /**
+     * @param owner - Node which get the {@code _slotCount} of the scope
+     */
+    private void beginScope(ScopeType type, Statement owner) {
+        Scope enclosing = scopeStack.isEmpty() ? null : scopeStack.peek();
+        scopeStack.push(new Scope(type, owner, enclosing));
     }
 
+    /**
+     * Decide if the scope need an {@code Environment}. When the outermost
+     * local scope end, lay out the frames and write the slots into the nodes
+     * <p />
+     * Only functions get a frame, plus the top level scopes which have
+     * variables. So a resolved variable is always in the frame of the running
+     * function, or one of its upvalues: accessing it is one array load,
+     * whatever the nesting
+     */
     private void endScope() {
-        scopeStack.pop();
+        Scope scope = scopeStack.pop();
+        // Closures capture boxes, not environments (see Environment.Box), so
+        // a block never need an environment of its own. Except at top level,
+        // where there is no frame to put its variables in
+        scope.inlined = scope.type != ScopeType.FUNCTION
+                && (scope.enclosing != null || scope.localCount() == 0);
+
+        if (scopeStack.isEmpty()) {
+            scope.slotCount = layout(scope, 0);
+            scope.write();
+            for (Use use : uses)
+                use.write();
+            uses.clear();
+        }
     }
 
     /**
      * Mark variable as {@code undefined}
+     *
+     * @param declaration - {@code VarDeclare}, {@code FuncPrototype} or
+     *                    {@code ClassDeclare}, get the slot of the variable
      */
-    private void declare(Token identifier) {
+    private void declare(Statement declaration, Token identifier) {
         if (scopeStack.isEmpty())
             return;
 
-        Map<String, Boolean> currentScope = scopeStack.peek();
-        if (currentScope.containsKey(identifier.getLexeme())) {
+        Scope currentScope = scopeStack.peek();
+        if (currentScope.variables.containsKey(identifier.getSymbol())) {
             throwError(identifier,
                     "Already variable with this name in this scope.");
         }
 
-        currentScope.put(identifier.getLexeme(), false);
+        Local local = currentScope.add(identifier.getSymbol());
+        local.defined = false;
+        if (declaration != null)
+            uses.add(new Use(declaration, local, -1));
     }
 
     /**
@@ -283,32 +344,97 @@ public class Resolver {
         if (scopeStack.isEmpty())
             return;
         // scopeStack.peek() = currentScope
-        scopeStack.peek().put(identifier.getLexeme(), true);
+        scopeStack.peek().variables.get(identifier.getSymbol()).defined = true;
+    }
+
+    /**
+     * Give slots to the variables of {@code scope} from {@code base}, and to
+     * its inlined children after them. Sibling blocks never run at the same
+     * time, so they share the same slots
+     *
+     * @return Number of slots the frame need
+     */
+    private static int layout(Scope scope, int base) {
+        scope.offset = base;
+        int end = base + scope.variables.size();
+        int slotCount = end;
+        for (Scope child : scope.children) {
+            if (child.inlined)
+                slotCount = Math.max(slotCount, layout(child, end));
+            else {
+                child.slotCount = layout(child, 0);
+                child.write();
+            }
+        }
+
+        if (scope.inlined)
+            scope.write();
+        return slotCount;
     }
 
     /* ---------------- Switch Pattern Helper function -------------------- */
 
     /**
      * Same as {@code resolveLocal()}
+     * <p />
+     * Write the resolved slot directly into the node, so Interpreter don't
+     * need a side table. A variable of an enclosing function become an
+     * upvalue, the node get {@code _upvalue} instead. Not found = global, the
+     * node keep {@code _slot = -1} and {@code _upvalue = -1}
      */
-    private void resolveVariable(Expression expr, Token identifier) {
-        String id = identifier.getLexeme();
-
+    private void resolveVariable(Expression expr, int symbol) {
         for (int idx = scopeStack.size() - 1; idx >= 0; idx--) {
-            if (scopeStack.get(idx).containsKey(id)) {
-                interpreter.storeResolve(expr, scopeStack.size() - idx - 1);
+            Local local = scopeStack.get(idx).variables.get(symbol);
+            if (local != null) {
+                Scope function = functionOf(scopeStack.peek());
+                int upvalue = (function == functionOf(local.scope)) ? -1 : upvalue(function, local);
+
+                uses.add(new Use(expr, local, upvalue));
                 return;
             }
         }
     }
 
+    /**
+     * Same as {@code resolveUpvalue()} of clox
+     *
+     * @return Index of {@code local} in the upvalues of {@code function},
+     *         added if it's the first use. Each enclosing function down to
+     *         the one declaring {@code local} get it as an upvalue too
+     */
+    private static int upvalue(Scope function, Local local) {
+        List<Capture> captures = function.captures;
+        for (int idx = 0; idx < captures.size(); idx++) {
+            if (captures.get(idx).local == local)
+                return idx;
+        }
+
+        Scope enclosing = functionOf(function.enclosing);
+        int from = (enclosing == functionOf(local.scope)) ? -1 : upvalue(enclosing, local);
+        captures.add(new Capture(local, from));
+        return captures.size() - 1;
+    }
+
+    /**
+     * @return The innermost function around {@code scope}, {@code null} at
+     *         top level
+     */
+    private static Scope functionOf(Scope scope) {
+        while (scope != null && scope.type != ScopeType.FUNCTION)
+            scope = scope.enclosing;
+
+        return scope;
+    }
+
     private void resolve(Statement stmt) {
         runStatement(stmt);
     }
 
     private void resolve(List<Statement> stmtList) {
         for (Statement stmt : stmtList) {
-            resolve(stmt);
+            // null = statement with syntax error, Parser already reported it
+            if (stmt != null)
+                resolve(stmt);
         }
     }
 
@@ -320,9 +446,12 @@ public class Resolver {
         FuncType enclosingFunction = currentFunction; // stash currentFunction status
         currentFunction = type;
 
-        beginScope();
+        beginScope(ScopeType.FUNCTION, function);
+        if (type == FuncType.METHOD || type == FuncType.INITIALIZER)
+            scopeStack.peek().add(Symbol.THIS); // Receiver, before params
+
         for (Token param : function._params) {
-            declare(param);
+            declare(null, param);
             define(param);
         }
         resolve(function._blockStmt);
@@ -346,6 +475,194 @@ public class Resolver {
         throw new ResolveError(identifier, message);
     }
 
+    /**
+     * A local variable inside {@link #scopeStack}
+     */
+    private static class Local {
+        final Scope scope;
+        /**
+         * Index inside {@link #scope}, the slot in the frame is
+         * {@code scope.offset + slot}
+         */
+        final int slot;
+        boolean defined = true;
+
+        Local(Scope scope, int slot) {
+            this.scope = scope;
+            this.slot = slot;
+        }
+
+        int frameSlot() {
+            return scope.offset + slot;
+        }
+    }
+
+    private static class Scope {
+        final ScopeType type;
+        final Statement owner;
+        final Scope enclosing;
+        /**
+         * Keyed by {@link Symbol}
+         */
+        final SymbolMap<Local> variables = new SymbolMap<>();
+        final List<Scope> children = new ArrayList<>();
+        /**
+         * Upvalues of a {@link ScopeType#FUNCTION}, in index order
+         */
+        final List<Capture> captures = new ArrayList<>();
+        /**
+         * No {@code Environment} of its own, the variables are slots of the
+         * enclosing frame. An inlined scope without enclosing one has no
+         * variable at all
+         */
+        boolean inlined = false;
+        /**
+         * Slot of the first variable inside the frame
+         */
+        int offset = 0;
+        /**
+         * Size of the frame, when the scope is not inlined
+         */
+        int slotCount = 0;
+
+        Scope(ScopeType type, Statement owner, Scope enclosing) {
+            this.type = type;
+            this.owner = owner;
+            this.enclosing = enclosing;
+            if (enclosing != null)
+                enclosing.children.add(this);
+        }
+
+        /**
+         * Slot = order of declaration, same order Interpreter define variables
+         */
+        Local add(int symbol) {
+            Local local = new Local(this, variables.size());
+            variables.put(symbol, local);
+            return local;
+        }
+
+        /**
+         * Number of variables of the scope and its inlined children
+         */
+        int localCount() {
+            int count = variables.size();
+            for (Scope child : children) {
+                if (child.inlined)
+                    count += child.localCount();
+            }
+            return count;
+        }
+
+        void write() {
+            switch (owner) {
+                case Block b -> {
+                    b._inlined = inlined;
+                    b._slotCount = slotCount;
+                }
+                case For f -> {
+                    f._inlined = inlined;
+                    f._slotCount = slotCount;
+                }
+                case FuncPrototype fp -> {
+                    fp._slotCount = slotCount;
+                    fp._captures = captures();
+                }
+                case ClassDeclare cd -> {
+                    cd._inlined = inlined;
+                    cd._superSlot = offset; // `super` is the only variable
+                }
+                default -> {
+                }
+            }
+        }
+
+        /**
+         * Where the variables to capture are, in the frame where the function
+         * is created: the slot, or {@code -1 - index} for an upvalue of the
+         * enclosing function
+         */
+        private int[] captures() {
+            int[] result = new int[captures.size()];
+            for (int idx = 0; idx < result.length; idx++) {
+                Capture capture = captures.get(idx);
+                result[idx] = (capture.from != -1) ? -1 - capture.from : capture.local.frameSlot();
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * A variable of an enclosing function used by a function
+     */
+    private static class Capture {
+        final Local local;
+        /**
+         * Index in the upvalues of the enclosing function, or {@code -1} if
+         * {@link #local} is declared by the enclosing function itself
+         */
+        final int from;
+
+        Capture(Local local, int from) {
+            this.local = local;
+            this.from = from;
+        }
+    }
+
+    /**
+     * A node which read, write or declare a {@link Local}
+     */
+    private static class Use {
+        final Object node;
+        final Local local;
+        /**
+         * Index in the upvalues of the function where the node is, or
+         * {@code -1} if the variable is in its frame
+         */
+        final int upvalue;
+
+        Use(Object node, Local local, int upvalue) {
+            this.node = node;
+            this.local = local;
+            this.upvalue = upvalue;
+        }
+
+        void write() {
+            int slot = (upvalue == -1) ? local.frameSlot() : -1;
+
+            switch (node) {
+                case VarAccess va -> {
+                    va._slot = slot;
+                    va._upvalue = upvalue;
+                }
+                case Assign a -> {
+                    a._slot = slot;
+                    a._upvalue = upvalue;
+                }
+                case This th -> {
+                    th._slot = slot;
+                    th._upvalue = upvalue;
+                }
+                case Super sp -> {
+                    sp._slot = slot;
+                    sp._upvalue = upvalue;
+                }
+                case VarDeclare vd -> {
+                    vd._slot = slot;
+                }
+                case FuncPrototype fp -> {
+                    fp._slot = slot;
+                }
+                case ClassDeclare cd -> {
+                    cd._slot = slot;
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
     private enum FuncType {
         NONE,
         FUNCTION,
@@ -361,4 +678,13 @@ public class Resolver {
         CLASS,
         SUBCLASS
     }
+
+    private enum ScopeType {
+        FUNCTION,
+        BLOCK,
+        /**
+         * Hold {@code super} of a subclass, see {@code ClassDeclare}
+         */
+        SUPER
+    }
 }
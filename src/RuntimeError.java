@@ -0,0 +1,36 @@
+package src;
+
+import models.Expression;
+import models.Statement;
+import models.Token;
+
+/**
+ * Error of the running Tan program, reported by {@link Error#report}
+ *
+ * @implNote No Java stack trace: it's never printed, and filling it cost more
+ *           than the rest of the throw
+ */
+public class RuntimeError extends RuntimeException {
+    final Token token;
+    final Expression expr;
+    final Statement stmt;
+
+    RuntimeError(Token operator, String message) {
+        this(operator, null, null, message);
+    }
+
+    RuntimeError(Expression expression, String message) {
+        this(null, expression, null, message);
+    }
+
+    RuntimeError(Statement statement, String message) {
+        this(null, null, statement, message);
+    }
+
+    private RuntimeError(Token token, Expression expr, Statement stmt, String message) {
+        super(message, null, false, false);
+        this.token = token;
+        this.expr = expr;
+        this.stmt = stmt;
+    }
+}
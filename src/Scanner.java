@@ -1,32 +1,119 @@
 package src;
 
+import java.io.Reader;
 import java.lang.annotation.Inherited;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 import models.Token;
 import models.TokenType;
 import models.Keyword;
+import models.Symbol;
 import static models.TokenType.*;
 
 public class Scanner {
-    private final String source;
-    private final List<Token> tokenList = new ArrayList<>();
+    /**
+     * A {@code String}, or the file itself for {@link MappedSource}
+     */
+    private final CharSequence source;
+    /**
+     * Same as {@link #source} when scanning a {@link Reader}, else {@code null}
+     */
+    private final ReaderSource stream;
+    /**
+     * Type of the token found by the last {@link #scanToken()}, {@code null}
+     * if it only skipped whitespace or comment
+     */
+    private TokenType found = null;
+    /**
+     * End of the lexeme found, usually {@code current}
+     */
+    private int end = 0;
+    /**
+     * {@link Symbol} of the name found, {@code -1} if it's not a name
+     */
+    private int symbol = -1;
+    /**
+     * Start of the oldest token {@link Parser} may still ask for, a stream
+     * must keep the text from here on
+     */
+    private int keep = Integer.MAX_VALUE;
+    /**
+     * String literals of this source, so same text share one {@code String}.
+     * Not in {@link Symbol}: its table live as long as the process, the
+     * literals only as long as the program
+     */
+    private final Map<String, String> strings = new HashMap<>();
     private int start = 0, current = 0, line = 1;
 
     // constructor
-    Scanner(String source) {
+    Scanner(CharSequence source) {
         this.source = source;
+        this.stream = null;
+    }
+
+    /**
+     * Scan while reading {@code reader}, see {@link ReaderSource}
+     */
+    Scanner(Reader reader) {
+        this.stream = new ReaderSource(reader);
+        this.source = stream;
     }
 
-    List<Token> getListToken() {
-        while (!endOfFile()) {
+    /**
+     * Scan only until the next token and add it to {@code tokens}, for
+     * {@link Parser} to pull the tokens one by one. Nothing is allocated for
+     * the token, see {@link #token}
+     *
+     * @implNote Add {@code EOF} again and again once the source end
+     */
+    void nextToken(TokenBuffer tokens) {
+        while (found == null && !endOfFile()) {
             start = current; // Keep track of next lexeme location
+            if (stream != null)
+                stream.discardBefore(Math.min(start, keep));
             scanToken();
         }
 
-        tokenList.add(new Token(EOF, "", line)); // reach end of a line
-        return tokenList;
+        if (found == null) {
+            tokens.add(EOF, current, current, line, -1); // reach end of a line
+            return;
+        }
+
+        tokens.add(found, start, end, line, symbol);
+        found = null;
+    }
+
+    /**
+     * Create the {@code Token} of {@code source[start, end)}, scanned before
+     *
+     * @implNote Only read from source when it's needed, see
+     *           {@link Token#getLexeme()}. A stream drop the text soon, so read
+     *           it now
+     */
+    Token token(TokenType type, int start, int end, int line, int symbol) {
+        // A name is already in the symbol table, no need to read it again
+        if (symbol != -1)
+            return new Token(type, Symbol.name(symbol), null, symbol, line);
+
+        Object literal = switch (type) {
+            case NUMBER -> Double.parseDouble(source.subSequence(start, end).toString());
+            // Trim start, end character "". Same text share one String
+            case STRING -> strings.computeIfAbsent(source.subSequence(start + 1, end - 1).toString(), text -> text);
+            default -> null;
+        };
+
+        if (stream != null)
+            return new Token(type, source.subSequence(start, end).toString(), literal, line);
+        return new Token(type, source, start, end, literal, line);
+    }
+
+    /**
+     * Same as {@link TokenBuffer#release(int)}, {@code offset} is the start of
+     * the oldest token still kept
+     */
+    void keepFrom(int offset) {
+        keep = offset;
     }
 
     /* --------- Helper function --------- */
@@ -194,35 +281,14 @@ public class Scanner {
     /**
      * @see - Phan biet Token >< Lexeme:
      *      https://stackoverflow.com/a/14958865/12897204
+     * @implNote The literal of {@code NUMBER, STRING} is read from the lexeme
+     *           when the {@code Token} is created, see {@link #token}
      */
     private void addToken(TokenType type) {
-        String lexeme = source.substring(start, current); // NOTE: Lexeme khong nhat thiet la 1 tu hoan chinh, ma co the
-                                                          // la 1 chu cai thoi
-        tokenList.add(new Token(type, lexeme, line));
-    }
-
-    /**
-     * Override {@link #addToken(TokenType)}.
-     * <p />
-     * Example: {@link #addString()}
-     *
-     * <pre>
-     * String pureValue = source.substring(start + 1, current - 1);
-     * addToken(STRING, pureValue);
-     * </pre>
-     *
-     * @param literal Store lexeme type.
-     *                <p />
-     *                Lexeme has type {@code string}, so even {@code number} will be
-     *                scan as a {@code string}. {@code literal} has type
-     *                {@code Object} so you can pass in original value and type. See
-     *                example above.
-     */
-    private void addToken(TokenType type, Object literal) {
-        String lexeme = source.substring(start, current); // NOTE: Lexeme khong nhat thiet la 1 tu hoan chinh, ma co the
-                                                          // la 1 chu cai thoi
-        tokenList.add(new Token(type, lexeme, literal, line));
-
+        // NOTE: Lexeme khong nhat thiet la 1 tu hoan chinh, ma co the la 1 chu cai thoi
+        found = type;
+        end = current;
+        symbol = -1;
     }
 
     private void addString() {
@@ -236,16 +302,14 @@ public class Scanner {
             readSource();
         }
 
-        // Trim start, end character ""
-        String pureValue = source.substring(start + 1, current - 1);
-        addToken(STRING, pureValue);
+        addToken(STRING);
     }
 
     private void addNum() {
         while ((isDigit(nextChar()) || isNextChar('.')) && !endOfFile())
             ++current; // Neu la digit thi moi cho doc tiep
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER);
     }
 
     private void addIdentifier() {
@@ -257,13 +321,19 @@ public class Scanner {
 
         // CAUTION: Hotfix - Can't get variable name which has 1 char
         // why -1 ? see caution below
-        String id = (start == current - 1) ? source.substring(start, current) : source.substring(start, current - 1);
-        TokenType type = (Keyword.get(id) != null) ? Keyword.get(id) : IDENTIFIER;
-        // addToken(type);
+        int idEnd = (start == current - 1) ? current : current - 1;
+        TokenType keyword = Keyword.get(source, start, idEnd);
         // CAUTION: Hotfix - Must get exactly lexeme for variable identifier to work
-        // Currently, no need to refactor to new `addToken()`
-        // because only this function used
-        tokenList.add(new Token(type, id, line));
+        // so set `end` instead of using addToken()
+        found = (keyword != null) ? keyword : IDENTIFIER;
+        end = idEnd;
+        // Identifiers are ASCII, so Symbol can read them from any source
+        symbol = switch (found) {
+            case IDENTIFIER -> Symbol.intern(source, start, idEnd);
+            case THIS -> Symbol.THIS;
+            case SUPER -> Symbol.SUPER;
+            default -> -1;
+        };
 
         // CAUTION: Hotfix
         // Decrement to not pass over the character in readSource()
@@ -0,0 +1,69 @@
+package src;
+
+import java.util.Arrays;
+
+import models.Symbol;
+
+/**
+ * Hidden class of {@link TanInstance}: map field name to the index in
+ * {@code TanInstance.fields}. Instances which get the same fields in the same
+ * order share one shape, so the name table is stored once instead of once per
+ * instance.
+ * <p />
+ * Shapes are immutable. Adding a field move the instance to the next shape
+ * through {@link #transition(int)}, which is cached so the chain is built
+ * only once, usually by the first run of {@code init}
+ */
+class Shape {
+    /**
+     * {@link Symbol} of the field in each slot. Objects have few fields, so
+     * scanning these ints beat hashing
+     */
+    private final int[] fields;
+    private final SymbolMap<Shape> transitions = new SymbolMap<>();
+
+    /**
+     * Root shape, without any field. Each class own one, so a shape also tell
+     * which class the instance belong to
+     */
+    Shape() {
+        this.fields = new int[0];
+    }
+
+    private Shape(Shape parent, int field) {
+        this.fields = Arrays.copyOf(parent.fields, parent.fields.length + 1);
+        this.fields[parent.fields.length] = field;
+    }
+
+    /**
+     * @param field - {@link Symbol} of the name
+     * @return Index of the field, or {@code -1} if this shape doesn't have it
+     */
+    int slotOf(int field) {
+        for (int slot = 0; slot < fields.length; slot++) {
+            if (fields[slot] == field)
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Number of fields
+     */
+    int size() {
+        return fields.length;
+    }
+
+    /**
+     * @return Shape with {@code field} added as the last slot
+     */
+    Shape transition(int field) {
+        Shape next = transitions.get(field);
+        if (next == null) {
+            next = new Shape(this, field);
+            transitions.put(field, next);
+        }
+
+        return next;
+    }
+}
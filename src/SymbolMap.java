@@ -0,0 +1,88 @@
+package src;
+
+import java.util.Arrays;
+
+import models.Symbol;
+
+/**
+ * Same as {@code Map<String, V>}, keyed by {@link Symbol} id. A lookup is an
+ * int hash and int compares, no {@code String} hashing or equals
+ */
+final class SymbolMap<V> {
+    /**
+     * Open addressing, {@code -1} = empty
+     */
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    SymbolMap() {
+        this(8);
+    }
+
+    /**
+     * @param capacity - Power of 2
+     */
+    private SymbolMap(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, -1);
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int symbol) {
+        int mask = keys.length - 1;
+        for (int bucket = symbol & mask;; bucket = (bucket + 1) & mask) {
+            int key = keys[bucket];
+            if (key == symbol)
+                return (V) values[bucket];
+            if (key == -1)
+                return null;
+        }
+    }
+
+    boolean containsKey(int symbol) {
+        return get(symbol) != null;
+    }
+
+    /**
+     * @param value - Not {@code null}, {@link #get(int)} return {@code null}
+     *              for a missing key
+     */
+    void put(int symbol, V value) {
+        int mask = keys.length - 1;
+        int bucket = symbol & mask;
+        while (keys[bucket] != -1 && keys[bucket] != symbol)
+            bucket = (bucket + 1) & mask;
+
+        if (keys[bucket] == -1) {
+            keys[bucket] = symbol;
+            // Keep the table at most half full
+            if (++size * 2 > keys.length) {
+                values[bucket] = value;
+                rehash();
+                return;
+            }
+        }
+        values[bucket] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    void putAll(SymbolMap<? extends V> other) {
+        for (int bucket = 0; bucket < other.keys.length; bucket++) {
+            if (other.keys[bucket] != -1)
+                put(other.keys[bucket], (V) other.values[bucket]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        SymbolMap<V> grow = new SymbolMap<>(keys.length * 2);
+        grow.putAll(this);
+        keys = grow.keys;
+        values = grow.values;
+    }
+}
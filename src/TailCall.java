@@ -0,0 +1,45 @@
+package src;
+
+import java.util.List;
+
+/**
+ * Pending call of a {@code return f(...)} marked by {@link Resolver}. Instead
+ * of calling {@code f}, the body return this object as its return value, then
+ * {@link TanFunction} call {@code f} in a loop. So tail recursion run in
+ * constant Java stack.
+ *
+ * @implNote One instance per {@link Interpreter}, reused by every tail call:
+ *           nothing else run between filling it and reading it
+ */
+final class TailCall {
+    TanFunction function;
+    /**
+     * {@code this} of a method called directly, else {@code null}
+     */
+    TanInstance receiver;
+    int argc;
+    /**
+     * Same as the parameters of {@link Interpreter#call}
+     */
+    Object arg0, arg1, arg2;
+    List<Object> args;
+
+    TailCall set(TanFunction function, TanInstance receiver, int argc,
+            Object arg0, Object arg1, Object arg2, List<Object> args) {
+        this.function = function;
+        this.receiver = receiver;
+        this.argc = argc;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.args = args;
+        return this;
+    }
+
+    /**
+     * Drop the references once the call is set up
+     */
+    void clear() {
+        set(null, null, 0, null, null, null, null);
+    }
+}
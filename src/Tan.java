@@ -3,20 +3,12 @@ package src;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
-import models.Expression;
 import models.Statement;
-import models.Statement.ClassDeclare;
-import models.Statement.FuncPrototype;
-import src.Interpreter.ReturnException;
-import src.Interpreter.RuntimeError;
-import models.Token;
 import utils.ASTPrint;
 
 /**
@@ -25,6 +17,15 @@ import utils.ASTPrint;
 public class Tan {
     public static Error err = new Error();
     private static final Interpreter interpret = new Interpreter();
+    private static final VM vm = new VM(interpret);
+    /**
+     * Choose with flag {@code --engine=<name>}, i.e: {@code --engine=closure}
+     */
+    private static Engine engine = Engine.INTERPRETER;
+    /**
+     * Flag {@code --stats}, print run statistics to stderr after the run
+     */
+    private static boolean printStats = false;
 
     /**
      * @param args
@@ -33,8 +34,20 @@ public class Tan {
      * @implNote `throws IOException` because methods used inside also throw it.
      */
     public static void main(String[] args) throws IOException {
+        while (args.length > 0 && args[0].startsWith("--")) {
+            if (args[0].startsWith("--engine="))
+                engine = Engine.valueOf(args[0].substring("--engine=".length()).toUpperCase());
+            else if (args[0].equals("--stats"))
+                printStats = true;
+            else if (args[0].startsWith("--max-depth="))
+                vm.setDepthLimit(Integer.parseInt(args[0].substring("--max-depth=".length())));
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         if (args.length > 1)
             modeScript();
+        else if (args.length == 1 && args[0].equals("-"))
+            modePipe();
         else if (args.length == 1)
             modeFile(args[0]);
         else
@@ -43,30 +56,47 @@ public class Tan {
             modeFile("debug-mode");
     }
 
-    private static void run(String content) {
+    private static void run(CharSequence content) {
         // System.out.println('\n' + content + '\n'); // test
 
-        Scanner sc = new Scanner(content);
-        List<Token> tokenList = sc.getListToken();
+        run(new Scanner(content));
+    }
+
+    /**
+     * @implNote Parser pull the tokens from {@code sc} while parsing, so the
+     *           whole token list never exist at once
+     */
+    private static void run(Scanner sc) {
 
         // FIX: Comment out this line when finish
         // if (err.hasError())
         // System.exit(65); // FIX: Define code 65
 
-        Parser par = new Parser(tokenList);
+        Parser par = new Parser(sc);
         List<Statement> ASTList = par.getAST(); // NOTE: For debug
         // new ASTPrint().print(AST);
 
         // if (err.hasError())
         // System.exit(66); // FIX: Define code 66
 
-        Resolver res = new Resolver(interpret);
+        Resolver res = new Resolver();
         res.run(ASTList);
 
         // if (err.hasError())
         // System.exit(67); // FIX: Define code 67
 
-        interpret.run(ASTList);
+        switch (engine) {
+            case CLOSURE -> new ClosureCompiler(interpret).run(ASTList);
+            case VM -> vm.run(new BytecodeCompiler().compile(ASTList));
+            case TIERED -> {
+                interpret.enableJIT();
+                interpret.run(ASTList);
+            }
+            default -> interpret.run(ASTList);
+        }
+
+        if (printStats)
+            printStats();
 
         // if (err.hasRuntimeError())
         // System.exit(68); // FIX: Define code 68
@@ -76,6 +106,15 @@ public class Tan {
 
     /* ---------------- Helper function -------------------- */
 
+    private static void printStats() {
+        System.err.println("----- stats -----");
+        System.err.println("engine: " + engine.name().toLowerCase());
+        // Only the VM keep its call frames on the heap, the other engines are
+        // bounded by the Java stack
+        if (engine == Engine.VM)
+            System.err.println("max call depth: " + vm.maxDepth());
+    }
+
     /**
      * @implNote Has to make it `static` due to being called in `static main()`
      */
@@ -86,14 +125,24 @@ public class Tan {
     /**
      * @param file
      * @implNote Has to make it `static` due to being called in `static main()`
+     * @implNote The file is mapped in memory instead of read into a
+     *           {@code String}, see {@link MappedSource}
      * @see https://rollbar.com/blog/how-to-use-the-throws-keyword-in-java-and-when-to-use-throw
      */
     private static void modeFile(String file) throws IOException {
         System.out.println("\ntan " + file + "\n");
-        byte[] content = Files.readAllBytes(Paths.get("tests/performance/1.txt")); // TODO: Debug
+        MappedSource content = new MappedSource(Paths.get("tests/performance/1.txt")); // TODO: Debug
+
+        // System.out.println(content); // test
+        run(content);
+    }
 
-        // System.out.println(new String(content)); // test
-        run(new String(content, Charset.defaultCharset()));
+    /**
+     * Run the program piped to stdin, i.e: {@code generate | tan -}. The input
+     * is scanned while it's read, see {@link ReaderSource}
+     */
+    private static void modePipe() {
+        run(new Scanner(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
     }
 
     /**
@@ -119,148 +168,26 @@ public class Tan {
         }
     }
 
-    public interface TanCallable {
-        int arity(); // = number of arguments pre-defined
-
-        Object call(Interpreter interpreter, List<Object> args);
-    }
-
-    public class TanFunction implements TanCallable {
-        private final FuncPrototype declaration;
-        private final Environment closure;
-        private final boolean isInitializer;
-
-        TanFunction(FuncPrototype declaration, Environment closure, boolean isInitializer) {
-            this.declaration = declaration;
-            this.closure = closure;
-            this.isInitializer = isInitializer;
-        }
-
+    /**
+     * Which engine {@link #run(String)} use to execute the AST
+     */
+    private enum Engine {
         /**
-         * Make function/method able to access {@code this} variable like actual Java,
-         * C++, Python do
-         *
-         * @param instance - The {@code this}
-         * @return Same function with new closure which have {@code this} variable
+         * {@link Interpreter}, walk the AST
          */
-        public TanFunction bind(TanInstance instance) {
-            Environment newClosure = new Environment(closure);
-            newClosure.defineVar("this", instance);
-            return new TanFunction(declaration, newClosure, isInitializer);
-            // `get()` is constructed using TanFunction
-            // so we can access it using (this.)declaration
-            // instead of pass as argument
-        }
-
-        @Override
-        public int arity() {
-            return declaration._params.size();
-        }
-
-        @Override
-        public Object call(Interpreter interpreter, List<Object> args) {
-            Environment local = new Environment(closure);
-
-            for (int idx = 0; idx < this.arity(); idx++) {
-                local.defineVar(declaration._params.get(idx).getLexeme(), args.get(idx));
-            }
-
-            try {
-                interpreter.runBlock(declaration._blockStmt, local);
-            } catch (ReturnException r) {
-                return (isInitializer) ? closure.getAt(0, "this") : r.value;
-            }
-
-            return (isInitializer) ? closure.getAt(0, "this") : null; // For `return;` in `void` function
-        }
-
-        @Override
-        public String toString() {
-            return "<fn " + declaration._identifier.getLexeme() + ">";
-        }
-    }
-
-    public class TanClass implements TanCallable {
-        private final String identifier;
-        private final TanClass superClass;
-        private final Map<String, TanFunction> methods;
-
-        TanClass(String identifier, TanClass superClass, Map<String, TanFunction> methods) {
-            this.identifier = identifier;
-            this.superClass = superClass;
-            this.methods = methods;
-        }
-
-        @Override
-        public String toString() {
-            return "<class " + identifier + ">";
-        }
-
-        @Override
-        public int arity() {
-            TanFunction initializer = findMethod("init");
-            return (initializer != null) ? initializer.arity() : 0;
-        }
-
-        @Override
-        public Object call(Interpreter interpreter, List<Object> args) {
-            TanInstance instance = new TanInstance(this); // FOR DEBUG: what is this?
-            TanFunction initializer = findMethod("init");
-            if (initializer != null)
-                initializer.bind(instance).call(interpreter, args);
-            // initializer.bind(...) == initializer with `this` variable pre-defined
-            // initializer with `this`.call(...) == run initializer code and allow
-            // access `this`
-
-            return instance;
-        }
-
-        public TanFunction findMethod(String fieldName) {
-            if (methods.containsKey(fieldName))
-                return methods.get(fieldName);
-
-            if (superClass != null)
-                return superClass.findMethod(fieldName);
-
-            return null;
-        }
-    }
-
-    public class TanInstance {
+        INTERPRETER,
         /**
-         * Same as {@code klass}
+         * {@link ClosureCompiler}, compile the AST to lambdas then run them
          */
-        private final TanClass _class;
-        private final Map<String, Object> fields = new HashMap<>();
-
-        TanInstance(TanClass _class) {
-            this._class = _class;
-        }
-
-        public Object get(Token fieldName) {
-            String field = fieldName.getLexeme();
-
-            if (fields.containsKey(field)) {
-                return fields.get(field);
-            }
-            // else if
-            TanFunction method = _class.findMethod(field);
-            if (method != null)
-                return method.bind(this);
-
-            // else
-            // NOTE: Must throw error instead of return NULL
-            // page 197
-            throw new Interpreter().new RuntimeError(fieldName, "Undefined property: " + field);
-        }
-
-        public void set(Token fieldName, Object value) {
-            fields.put(fieldName.getLexeme(), value);
-        }
-
-        @Override
-        public String toString() {
-            return "<instance of class " + _class.identifier + ">";
-        }
+        CLOSURE,
+        /**
+         * {@link BytecodeCompiler} then {@link VM}
+         */
+        VM,
+        /**
+         * {@link Interpreter}, hot functions switch to {@link ClosureCompiler}.
+         * See {@link JIT}
+         */
+        TIERED
     }
-}
\ No newline at end of file
+}
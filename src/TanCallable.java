@@ -0,0 +1,40 @@
+package src;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Value which can be called: {@link TanFunction}, {@link TanClass} and the
+ * native functions
+ */
+public interface TanCallable {
+    /**
+     * Calls with at most this many arguments use {@code call0..call3}
+     */
+    int FIXED_ARITY = 3;
+
+    int arity(); // = number of arguments pre-defined
+
+    Object call(Interpreter interpreter, List<Object> args);
+
+    /*
+     * Fixed-arity entry points, so a call with few arguments doesn't build
+     * a List. The caller already checked arity()
+     */
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, List.of());
+    }
+
+    default Object call1(Interpreter interpreter, Object arg0) {
+        return call(interpreter, Arrays.asList(arg0));
+    }
+
+    default Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return call(interpreter, Arrays.asList(arg0, arg1));
+    }
+
+    default Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        return call(interpreter, Arrays.asList(arg0, arg1, arg2));
+    }
+}
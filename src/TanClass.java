@@ -0,0 +1,104 @@
+package src;
+
+import java.util.List;
+
+import models.Symbol;
+
+/**
+ * Runtime value of a class declaration
+ */
+public final class TanClass implements TanCallable {
+    final String identifier;
+    /**
+     * Own methods plus every inherited one, so finding a method never walk
+     * the superclass chain
+     */
+    private final SymbolMap<TanFunction> methods;
+    /**
+     * Cached {@code init}, {@code null} if the class has none
+     */
+    private final TanFunction initializer;
+    private final int arity;
+    /**
+     * Every instance start here, see {@link Shape}
+     */
+    final Shape rootShape = new Shape();
+    /**
+     * Most fields an instance has had so far, so new instances are
+     * allocated big enough once {@code init} has run a few times
+     */
+    int fieldCount = 0;
+
+    /**
+     * @param methods - Keyed by {@link Symbol}
+     */
+    TanClass(String identifier, TanClass superClass, SymbolMap<TanFunction> methods) {
+        this.identifier = identifier;
+
+        // Own methods override the inherited ones
+        SymbolMap<TanFunction> table = new SymbolMap<>();
+        if (superClass != null)
+            table.putAll(superClass.methods);
+        table.putAll(methods);
+        this.methods = table;
+
+        this.initializer = this.methods.get(Symbol.INIT);
+        this.arity = (initializer != null) ? initializer.arity() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "<class " + identifier + ">";
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        TanInstance instance = new TanInstance(this); // FOR DEBUG: what is this?
+        if (initializer != null)
+            initializer.invoke(interpreter, instance, args);
+        // invoke(instance, ...) == run initializer code with `this` in slot 0,
+        // same as initializer.bind(instance).call(...) without the bound copy
+
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return construct(interpreter, 0, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        return construct(interpreter, 1, arg0, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return construct(interpreter, 2, arg0, arg1, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        return construct(interpreter, 3, arg0, arg1, arg2);
+    }
+
+    private Object construct(Interpreter interpreter, int argc, Object arg0, Object arg1, Object arg2) {
+        TanInstance instance = new TanInstance(this);
+        if (initializer != null)
+            initializer.invoke(interpreter, instance, argc, arg0, arg1, arg2);
+
+        return instance;
+    }
+
+    /**
+     * @param fieldName - {@link Symbol} of the name
+     */
+    public TanFunction findMethod(int fieldName) {
+        return methods.get(fieldName);
+    }
+}
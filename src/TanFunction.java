@@ -0,0 +1,192 @@
+package src;
+
+import java.util.List;
+
+import models.Symbol;
+import models.Token;
+import models.Statement.FuncPrototype;
+
+/**
+ * Runtime value of a function or method declaration
+ */
+public final class TanFunction implements TanCallable {
+    private final FuncPrototype declaration;
+    /**
+     * Only the variables the body use, not the whole environment where
+     * the function was declared. So a closure doesn't keep the other
+     * variables around it alive
+     */
+    private final Environment.Box[] upvalues;
+    private final boolean isInitializer;
+    /**
+     * Body compiled by {@link ClosureCompiler}. {@code null} when the
+     * function is run by {@link Interpreter}, which may still switch to a
+     * compiled body later, see {@link JIT}
+     */
+    private final ClosureCompiler.Exec compiled;
+    /**
+     * The {@code this} of a bound method, {@code null} otherwise
+     */
+    private final TanInstance receiver;
+
+    TanFunction(FuncPrototype declaration, Environment closure, boolean isInitializer) {
+        this(declaration, closure, isInitializer, null);
+    }
+
+    /**
+     * @param closure - Where the function is declared, its upvalues are
+     *                captured from here
+     */
+    TanFunction(FuncPrototype declaration, Environment closure, boolean isInitializer,
+            ClosureCompiler.Exec compiled) {
+        this(declaration, closure.capture(declaration._captures), isInitializer, compiled, null);
+    }
+
+    private TanFunction(FuncPrototype declaration, Environment.Box[] upvalues, boolean isInitializer,
+            ClosureCompiler.Exec compiled, TanInstance receiver) {
+        this.declaration = declaration;
+        this.upvalues = upvalues;
+        this.isInitializer = isInitializer;
+        this.compiled = compiled;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Make function/method able to access {@code this} variable like actual Java,
+     * C++, Python do
+     * <p />
+     * Only needed when the method is used as a value, eg. {@code var f =
+     * obj.method;}. A direct call {@code obj.method()} use
+     * {@link #invoke} instead, without creating the bound method
+     *
+     * @param instance - The {@code this}
+     * @return Same function which put {@code instance} in slot 0 when called
+     */
+    public TanFunction bind(TanInstance instance) {
+        return new TanFunction(declaration, upvalues, isInitializer, compiled, instance);
+    }
+
+    @Override
+    public int arity() {
+        return declaration._params.size();
+    }
+
+    FuncPrototype declaration() {
+        return declaration;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        return invoke(interpreter, receiver, args);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, receiver, 0, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        return invoke(interpreter, receiver, 1, arg0, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return invoke(interpreter, receiver, 2, arg0, arg1, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        return invoke(interpreter, receiver, 3, arg0, arg1, arg2);
+    }
+
+    /**
+     * Call with {@code this} given by the caller. For a method, {@link Resolver}
+     * reserve slot 0 of the frame for {@code this}, before the params
+     *
+     * @param receiver - {@code null} if this is not a method
+     */
+    Object invoke(Interpreter interpreter, TanInstance receiver, List<Object> args) {
+        return execute(interpreter, frame(receiver, args.size(), null, null, null, args), receiver);
+    }
+
+    /**
+     * Same as {@link #invoke(Interpreter, TanInstance, List)} for at most
+     * {@link TanCallable#FIXED_ARITY} arguments, unused ones are {@code null}
+     */
+    Object invoke(Interpreter interpreter, TanInstance receiver, int argc,
+            Object arg0, Object arg1, Object arg2) {
+        return execute(interpreter, frame(receiver, argc, arg0, arg1, arg2, null), receiver);
+    }
+
+    /**
+     * Environment of the body, with {@code this} and the params defined
+     *
+     * @param args - {@code null} unless there are more than
+     *             {@link TanCallable#FIXED_ARITY} arguments
+     */
+    private Environment frame(TanInstance receiver, int argc,
+            Object arg0, Object arg1, Object arg2, List<Object> args) {
+        Environment local = new Environment(upvalues, declaration._slotCount);
+        if (receiver != null)
+            local.defineVar(Symbol.THIS, receiver);
+
+        List<Token> params = declaration._params;
+        if (args != null) {
+            for (int idx = 0; idx < argc; idx++) {
+                local.defineVar(params.get(idx).getSymbol(), args.get(idx));
+            }
+        } else {
+            if (argc > 0)
+                local.defineVar(params.get(0).getSymbol(), arg0);
+            if (argc > 1)
+                local.defineVar(params.get(1).getSymbol(), arg1);
+            if (argc > 2)
+                local.defineVar(params.get(2).getSymbol(), arg2);
+        }
+
+        return local;
+    }
+
+    /**
+     * Run the body in {@code local}. When the body end with a tail call
+     * (see {@link TailCall}), loop to run the callee here instead of
+     * calling it one level deeper
+     */
+    private Object execute(Interpreter interpreter, Environment local, TanInstance receiver) {
+        TanFunction function = this;
+        while (true) {
+            Object value = function.runBody(interpreter, local);
+            if (value != interpreter.tailCall)
+                return (function.isInitializer) ? receiver : value;
+
+            TailCall call = interpreter.tailCall;
+            function = call.function;
+            receiver = (call.receiver != null) ? call.receiver : function.receiver;
+            local = function.frame(receiver, call.argc, call.arg0, call.arg1, call.arg2, call.args);
+            call.clear();
+        }
+    }
+
+    /**
+     * @return Value of {@code return}, {@code null} for {@code return;} or
+     *         no return
+     */
+    private Object runBody(Interpreter interpreter, Environment local) {
+        ClosureCompiler.Exec code = (compiled != null) ? compiled : interpreter.tierUp(declaration);
+        if (code != null) {
+            Object completion = code.run(local);
+            return (completion != ClosureCompiler.NORMAL) ? completion : null;
+        }
+
+        if (interpreter.runBlock(declaration._blockStmt, local))
+            return interpreter.returnValue();
+
+        return null; // For `return;` in `void` function
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration._identifier.getLexeme() + ">";
+    }
+}
@@ -0,0 +1,74 @@
+package src;
+
+import java.util.Arrays;
+
+import models.Token;
+
+/**
+ * Object created by calling a {@link TanClass}
+ */
+public final class TanInstance {
+    /**
+     * Same as {@code klass}
+     */
+    final TanClass _class;
+    Shape shape;
+    /**
+     * Values of the fields, indexed by {@link #shape}. May be longer than
+     * the shape
+     */
+    Object[] fields;
+
+    TanInstance(TanClass _class) {
+        this._class = _class;
+        this.shape = _class.rootShape;
+        this.fields = new Object[_class.fieldCount];
+    }
+
+    public Object get(Token fieldName) {
+        int field = fieldName.getSymbol();
+
+        int slot = shape.slotOf(field);
+        if (slot != -1) {
+            return fields[slot];
+        }
+        // else if
+        TanFunction method = _class.findMethod(field);
+        if (method != null)
+            return method.bind(this);
+
+        // else
+        // NOTE: Must throw error instead of return NULL
+        // page 197
+        throw new RuntimeError(fieldName, "Undefined property: " + fieldName.getLexeme());
+    }
+
+    public void set(Token fieldName, Object value) {
+        int field = fieldName.getSymbol();
+
+        int slot = shape.slotOf(field);
+        if (slot == -1) {
+            grow(shape.transition(field));
+            slot = shape.size() - 1;
+        }
+
+        fields[slot] = value;
+    }
+
+    /**
+     * Move to {@code next}, which has one more field than the current shape
+     */
+    void grow(Shape next) {
+        shape = next;
+        int slot = next.size() - 1;
+        if (slot == fields.length)
+            fields = Arrays.copyOf(fields, Math.max(4, slot * 2));
+        if (slot >= _class.fieldCount)
+            _class.fieldCount = slot + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "<instance of class " + _class.identifier + ">";
+    }
+}
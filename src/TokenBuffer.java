@@ -0,0 +1,126 @@
+package src;
+
+import java.util.Objects;
+
+import models.Token;
+import models.TokenType;
+
+/**
+ * Tokens pulled from {@link Scanner} by {@link Parser}, packed in parallel
+ * {@code int} arrays instead of one {@link Token} object each. A
+ * {@code Token} is only created by {@link #token(int)}, when the parser put it
+ * in the AST or report an error with it
+ * <p />
+ * The arrays are a ring indexed by the position of the token in the source.
+ * The parser {@link #release(int)} the tokens it's done with, so the ring
+ * stay a few tokens long
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Scanner scanner;
+    /**
+     * Same as {@code Token}: ordinal of the type, offset of the lexeme in the
+     * source, length of the lexeme, line and symbol
+     */
+    private int[] types = new int[16], starts = new int[16], lengths = new int[16], lines = new int[16],
+            symbols = new int[16];
+    /**
+     * Position of the oldest kept token, and of the next one to pull
+     */
+    private int first = 0, pulled = 0;
+    /**
+     * Number of tokens, known once {@code EOF} is pulled
+     */
+    private int length = -1;
+
+    TokenBuffer(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Same as {@code tokenList.get(index).getType()}
+     */
+    TokenType type(int index) {
+        int slot = slot(index); // may grow the arrays
+        return TYPES[types[slot]];
+    }
+
+    /**
+     * Same as {@code tokenList.get(index)}, a new {@code Token} each call
+     */
+    Token token(int index) {
+        int slot = slot(index);
+        int start = starts[slot];
+        return scanner.token(TYPES[types[slot]], start, start + lengths[slot], lines[slot], symbols[slot]);
+    }
+
+    /**
+     * Tokens before {@code index} won't be asked again
+     */
+    void release(int index) {
+        if (index <= first)
+            return;
+
+        first = Math.min(index, pulled);
+        scanner.keepFrom((first < pulled) ? starts[first & (types.length - 1)] : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Called by {@link Scanner#nextToken(TokenBuffer)}
+     */
+    void add(TokenType type, int start, int end, int line, int symbol) {
+        if (pulled - first == types.length)
+            grow();
+        // Ring was empty so nothing keep the text, the new token must
+        if (first == pulled)
+            scanner.keepFrom(start);
+
+        int slot = pulled & (types.length - 1);
+        types[slot] = type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = end - start;
+        lines[slot] = line;
+        symbols[slot] = symbol;
+        pulled++;
+        if (type == TokenType.EOF)
+            length = pulled;
+    }
+
+    /**
+     * Pull until the token at {@code index}
+     *
+     * @return Index of the token in the arrays
+     */
+    private int slot(int index) {
+        while (index >= pulled && length == -1)
+            scanner.nextToken(this);
+
+        if (length != -1)
+            Objects.checkIndex(index, length); // Same as the list, nothing after EOF
+        return index & (types.length - 1);
+    }
+
+    /**
+     * Only when the parser peek far ahead, see {@code Parser.matchPeek}
+     */
+    private void grow() {
+        int capacity = types.length * 2;
+        types = regroup(types, capacity);
+        starts = regroup(starts, capacity);
+        lengths = regroup(lengths, capacity);
+        lines = regroup(lines, capacity);
+        symbols = regroup(symbols, capacity);
+    }
+
+    /**
+     * Copy the kept tokens to their slot in a ring of {@code capacity}
+     */
+    private int[] regroup(int[] ring, int capacity) {
+        int[] grow = new int[capacity];
+        for (int idx = first; idx < pulled; idx++) {
+            grow[idx & (capacity - 1)] = ring[idx & (ring.length - 1)];
+        }
+        return grow;
+    }
+}
@@ -0,0 +1,679 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import models.Token;
+import models.TokenType;
+
+/**
+ * Stack-based virtual machine, run the {@link Chunk} from
+ * {@link BytecodeCompiler}.
+ * <p />
+ * Select with {@code --engine=vm}
+ *
+ * @implNote A Tan call push a {@link CallFrame}, not a Java frame. So the
+ *           dispatch loop in {@link #execute()} never recurse, and both
+ *           stacks grow on the heap: recursion depth is limited by
+ *           {@link #depthLimit}, not by {@code -Xss}
+ */
+public class VM {
+    static final int FRAMES_INIT = 64;
+    static final int STACK_INIT = 16 * 1024;
+    /**
+     * Default of {@link #depthLimit}. Far deeper than the Java stack let the
+     * other engines go, but reached long before the heap run out with the
+     * default {@code -Xmx}
+     */
+    static final int DEPTH_LIMIT = 2_000_000;
+
+    private final Interpreter interpreter;
+    /**
+     * Same as {@code globals} of {@link Interpreter}, but VM has its own
+     */
+    private final Map<String, Object> globals = new HashMap<>();
+
+    private Object[] stack = new Object[STACK_INIT];
+    /**
+     * Same as {@code stackTop}
+     */
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[FRAMES_INIT];
+    private int frameCount = 0;
+    /**
+     * Deepest {@link #frameCount} of the run, see {@link #maxDepth()}
+     */
+    private int maxFrameCount = 0;
+    /**
+     * A call deeper than this is a {@code Stack overflow} runtime error,
+     * instead of growing the stacks until the heap run out. If the heap run
+     * out first, it's a {@code Stack overflow} too
+     */
+    private int depthLimit = DEPTH_LIMIT;
+    /**
+     * Freed when the heap run out while growing the stacks, so there is still
+     * memory to report the {@code Stack overflow}
+     */
+    private byte[] reserve = new byte[1 << 20];
+    /**
+     * The error being recovered is a {@code Stack overflow}, see
+     * {@link #recover(RuntimeError)}
+     */
+    private boolean overflow = false;
+    /**
+     * Handlers pushed by {@link OpCode#PUSH_HANDLER}: where to continue and
+     * the stack height to go back to
+     */
+    private int[] handlerPc = new int[64];
+    private int[] handlerSp = new int[64];
+    private int handlerCount = 0;
+    /**
+     * Sorted by slot, the highest first
+     */
+    private VMUpvalue openUpvalues = null;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+
+        globals.put("clock", new TanCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> args) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+        });
+    }
+
+    public void run(VMFunction script) {
+        VMClosure closure = new VMClosure(script);
+        stack[sp++] = closure;
+        callClosure(closure, 0, 0);
+
+        while (true) {
+            try {
+                execute();
+                return;
+            } catch (RuntimeError e) {
+                if (!recover(e))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Deepest call stack reached so far, the top-level script count as 1
+     */
+    int maxDepth() {
+        return maxFrameCount;
+    }
+
+    /**
+     * Flag {@code --max-depth=<n>}, see {@link #depthLimit}
+     */
+    void setDepthLimit(int depthLimit) {
+        this.depthLimit = depthLimit;
+    }
+
+    /* ---------------- Dispatch loop -------------------- */
+
+    private void execute() {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int base = frame.base;
+        int ip = frame.ip;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> stack[sp++] = constants[code[ip++]];
+                case OpCode.NIL -> stack[sp++] = null;
+                case OpCode.TRUE -> stack[sp++] = true;
+                case OpCode.FALSE -> stack[sp++] = false;
+                case OpCode.POP -> sp--;
+                case OpCode.GET_LOCAL -> stack[sp++] = stack[base + code[ip++]];
+                case OpCode.SET_LOCAL -> stack[base + code[ip++]] = stack[sp - 1];
+                case OpCode.GET_GLOBAL -> {
+                    String identifier = (String) constants[code[ip++]];
+                    Object value = globals.get(identifier);
+                    if (value == null && !globals.containsKey(identifier))
+                        throw error(frame, ip, "undefined variable: " + identifier);
+                    stack[sp++] = value;
+                }
+                case OpCode.DEFINE_GLOBAL -> globals.put((String) constants[code[ip++]], stack[--sp]);
+                case OpCode.SET_GLOBAL -> {
+                    String identifier = (String) constants[code[ip++]];
+                    if (!globals.containsKey(identifier))
+                        throw error(frame, ip, "assignment to undefined variable: " + identifier);
+                    globals.put(identifier, stack[sp - 1]);
+                }
+                case OpCode.GET_UPVALUE -> stack[sp++] = frame.closure.upvalues[code[ip++]].get(stack);
+                case OpCode.SET_UPVALUE -> frame.closure.upvalues[code[ip++]].set(stack, stack[sp - 1]);
+                case OpCode.GET_PROPERTY -> {
+                    String identifier = (String) constants[code[ip++]];
+                    if (!(stack[sp - 1] instanceof VMInstance instance))
+                        throw error(frame, ip, "object is not an instance of class");
+
+                    Object value = instance.fields.get(identifier);
+                    if (value == null && !instance.fields.containsKey(identifier)) {
+                        VMClosure method = instance._class.methods.get(identifier);
+                        if (method == null)
+                            throw error(frame, ip, "Undefined property: " + identifier);
+                        value = new VMBoundMethod(instance, method);
+                    }
+                    stack[sp - 1] = value;
+                }
+                case OpCode.SET_PROPERTY -> {
+                    String identifier = (String) constants[code[ip++]];
+                    Object value = stack[--sp];
+                    if (!(stack[sp - 1] instanceof VMInstance instance))
+                        throw error(frame, ip, "object is not an instance of class");
+
+                    instance.fields.put(identifier, value);
+                    stack[sp - 1] = value;
+                }
+                case OpCode.GET_SUPER -> {
+                    String identifier = (String) constants[code[ip++]];
+                    VMClass superClass = (VMClass) stack[--sp];
+                    VMClosure method = superClass.methods.get(identifier);
+                    if (method == null)
+                        throw error(frame, ip, "Undefined property '" + identifier);
+                    stack[sp - 1] = new VMBoundMethod((VMInstance) stack[sp - 1], method);
+                }
+                case OpCode.EQUAL -> {
+                    Object rhs = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], rhs);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    Object rhs = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], rhs);
+                }
+                case OpCode.MORE -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '>' is not a number", lhs, rhs);
+                    stack[sp - 1] = (double) lhs > (double) rhs;
+                }
+                case OpCode.MORE_EQUAL -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '>=' is not a number", lhs, rhs);
+                    stack[sp - 1] = (double) lhs >= (double) rhs;
+                }
+                case OpCode.LESS -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '<' is not a number", lhs, rhs);
+                    stack[sp - 1] = (double) lhs < (double) rhs;
+                }
+                case OpCode.LESS_EQUAL -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '<=' is not a number", lhs, rhs);
+                    stack[sp - 1] = (double) lhs <= (double) rhs;
+                }
+                case OpCode.ADD -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    if (lhs instanceof Double && rhs instanceof Double)
+                        stack[sp - 1] = (double) lhs + (double) rhs;
+                    else if (lhs instanceof String || rhs instanceof String)
+                        stack[sp - 1] = (String) lhs + (String) rhs;
+                    else
+                        throw error(frame, ip, "two operand of '+' are not type number or string");
+                }
+                case OpCode.SUBTRACT -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '-' is not a number", lhs, rhs);
+                    stack[sp - 1] = (double) lhs - (double) rhs;
+                }
+                case OpCode.MULTIPLY -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '*' is not a number", lhs, rhs);
+                    stack[sp - 1] = (double) lhs * (double) rhs;
+                }
+                case OpCode.DIVIDE -> {
+                    Object rhs = stack[--sp], lhs = stack[sp - 1];
+                    verifyNumber(frame, ip, "exist an operand of '/' is not a number", lhs, rhs);
+                    if ((double) rhs == 0)
+                        throw error(frame, ip, "divide by 0");
+                    stack[sp - 1] = (double) lhs / (double) rhs;
+                }
+                case OpCode.NOT -> stack[sp - 1] = !Interpreter.truthy(stack[sp - 1]);
+                case OpCode.NEGATE -> {
+                    if (!(stack[sp - 1] instanceof Double))
+                        throw error(frame, ip, "operand of unary '-' is not a number");
+                    stack[sp - 1] = -((double) stack[sp - 1]);
+                }
+                case OpCode.SELECT -> {
+                    Object condition = stack[--sp];
+                    Object first = stack[--sp];
+                    if (Interpreter.truthy(condition))
+                        stack[sp - 1] = first;
+                }
+                case OpCode.PRINT -> System.out.println(Interpreter.clean(stack[--sp]));
+                case OpCode.JUMP -> {
+                    int offset = code[ip++];
+                    ip += offset;
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    int offset = code[ip++];
+                    if (!Interpreter.truthy(stack[sp - 1]))
+                        ip += offset;
+                }
+                case OpCode.LOOP -> {
+                    int offset = code[ip++];
+                    ip -= offset;
+                }
+                case OpCode.CALL -> {
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    callValue(stack[sp - argCount - 1], argCount, frame.closure.function.chunk.lines[ip - 1]);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.CLOSURE -> {
+                    VMFunction function = (VMFunction) constants[code[ip++]];
+                    VMClosure closure = new VMClosure(function);
+                    for (int idx = 0; idx < closure.upvalues.length; idx++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++];
+                        closure.upvalues[idx] = isLocal ? captureUpvalue(base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case OpCode.RETURN -> {
+                    Object result = stack[--sp];
+                    if (!returnFrame(result))
+                        return;
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.CLASS -> {
+                    String identifier = (String) constants[code[ip++]];
+                    boolean hasSuperClass = code[ip++] == 1;
+
+                    VMClass superClass = null;
+                    if (hasSuperClass) {
+                        if (!(stack[sp - 1] instanceof VMClass))
+                            throw error(frame, ip, "Superclass must be a class");
+                        superClass = (VMClass) stack[sp - 1];
+                    }
+                    stack[sp++] = new VMClass(identifier, superClass);
+                }
+                case OpCode.METHOD -> {
+                    String identifier = (String) constants[code[ip++]];
+                    VMClosure method = (VMClosure) stack[--sp];
+                    VMClass _class = (VMClass) stack[sp - 1];
+                    _class.methods.put(identifier, method);
+                    if (identifier.equals("init"))
+                        _class.initializer = method;
+                }
+                case OpCode.PUSH_HANDLER -> {
+                    int offset = code[ip++];
+                    if (handlerCount == handlerPc.length) {
+                        handlerPc = Arrays.copyOf(handlerPc, handlerCount * 2);
+                        handlerSp = Arrays.copyOf(handlerSp, handlerCount * 2);
+                    }
+                    handlerPc[handlerCount] = ip + offset;
+                    handlerSp[handlerCount] = sp;
+                    handlerCount++;
+                }
+                case OpCode.POP_HANDLER -> handlerCount--;
+                default -> throw error(frame, ip, "unexpected instruction " + code[ip - 1]);
+            }
+        }
+    }
+
+    /* ---------------- Call Helper function -------------------- */
+
+    /**
+     * Same as {@code case Call} in {@link Interpreter}
+     *
+     * @param line - Line of {@code )}, for runtime error
+     */
+    private void callValue(Object callee, int argCount, int line) {
+        if (callee == null)
+            throw error(line, "function name is not a callable function");
+
+        switch (callee) {
+            case VMClosure closure -> callClosure(closure, argCount, line);
+            case VMBoundMethod bound -> {
+                stack[sp - argCount - 1] = bound.receiver;
+                callClosure(bound.method, argCount, line);
+            }
+            case VMClass _class -> {
+                stack[sp - argCount - 1] = new VMInstance(_class);
+                if (_class.initializer != null)
+                    callClosure(_class.initializer, argCount, line);
+                else if (argCount != 0)
+                    throw error(line, "Expected 0 arguments but got " + argCount);
+            }
+            case TanCallable function -> {
+                if (function.arity() != argCount)
+                    throw error(line, "Expected " + function.arity() + " arguments but got " + argCount);
+
+                List<Object> args = new ArrayList<>(argCount);
+                for (int idx = sp - argCount; idx < sp; idx++) {
+                    args.add(stack[idx]);
+                }
+                Object result = function.call(interpreter, args);
+                sp -= argCount + 1;
+                stack[sp++] = result;
+            }
+            default -> throw error(line, "function name is not a callable function");
+        }
+    }
+
+    private void callClosure(VMClosure closure, int argCount, int line) {
+        if (closure.function.arity != argCount)
+            throw error(line, "Expected " + closure.function.arity + " arguments but got " + argCount);
+        if (frameCount == depthLimit)
+            throw stackOverflow(line);
+
+        int base = sp - argCount - 1;
+        CallFrame frame;
+        try {
+            if (frameCount == frames.length)
+                frames = Arrays.copyOf(frames, frameCount * 2);
+            if (base + closure.function.maxStack > stack.length)
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + closure.function.maxStack));
+
+            frame = frames[frameCount];
+            if (frame == null)
+                frame = frames[frameCount] = new CallFrame();
+        } catch (OutOfMemoryError e) {
+            // The heap can't hold a deeper stack, so it's the limit from now
+            reserve = null;
+            depthLimit = frameCount;
+            throw stackOverflow(line);
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frame.handlerBase = handlerCount;
+        frameCount++;
+        if (frameCount > maxFrameCount)
+            maxFrameCount = frameCount;
+    }
+
+    /**
+     * Pop the current frame and push {@code result} for the caller
+     *
+     * @return {@code false} when the top-level script return
+     */
+    private boolean returnFrame(Object result) {
+        CallFrame frame = frames[--frameCount];
+        closeUpvalues(frame.base);
+        handlerCount = frame.handlerBase;
+
+        if (frameCount == 0)
+            return false;
+
+        sp = frame.base;
+        stack[sp++] = result;
+        return true;
+    }
+
+    /**
+     * Same as the {@code catch} inside {@link Interpreter#runBlock}: report, then
+     * continue after the innermost block. If the error isn't inside any block,
+     * the function return {@code nil} ({@code this} for initializer)
+     * <p />
+     * A {@code Stack overflow} drop every call first, same as
+     * {@code resetStack()} of clox. Returning {@code nil} to each caller
+     * would only cause one more error per frame
+     *
+     * @return {@code false} when the top-level script stop
+     */
+    private boolean recover(RuntimeError e) {
+        Tan.err.report(e);
+
+        if (overflow) {
+            overflow = false;
+            // Back to the top-level statement making the first call
+            if (frameCount > 1) {
+                CallFrame first = frames[1];
+                closeUpvalues(first.base);
+                handlerCount = first.handlerBase;
+                sp = first.base;
+                frameCount = 1;
+            }
+        }
+
+        CallFrame frame = frames[frameCount - 1];
+        if (handlerCount > frame.handlerBase) {
+            handlerCount--;
+            closeUpvalues(handlerSp[handlerCount]);
+            sp = handlerSp[handlerCount];
+            frame.ip = handlerPc[handlerCount];
+            return true;
+        }
+
+        if (frameCount == 1) {
+            returnFrame(null);
+            return false;
+        }
+
+        return returnFrame(frame.closure.function.isInitializer ? stack[frame.base] : null);
+    }
+
+    /* ---------------- Upvalue Helper function -------------------- */
+
+    private VMUpvalue captureUpvalue(int slot) {
+        VMUpvalue prev = null;
+        VMUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            prev = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        VMUpvalue created = new VMUpvalue(slot);
+        created.next = upvalue;
+        if (prev == null)
+            openUpvalues = created;
+        else
+            prev.next = created;
+        return created;
+    }
+
+    /**
+     * Move every open upvalue from slot {@code last} upward to the heap
+     */
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VMUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.isOpen = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    /* ---------------- Error Helper function -------------------- */
+
+    private void verifyNumber(CallFrame frame, int ip, String message, Object lhs, Object rhs) {
+        if (lhs instanceof Double && rhs instanceof Double)
+            return;
+
+        throw error(frame, ip, message);
+    }
+
+    /**
+     * @param ip - Already pass over the instruction cause error
+     */
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return error(frame.closure.function.chunk.lines[ip - 1], message);
+    }
+
+    private RuntimeError stackOverflow(int line) {
+        overflow = true;
+        return error(line, "Stack overflow");
+    }
+
+    private RuntimeError error(int line, String message) {
+        return new RuntimeError(new Token(TokenType.NONE, "", line), message);
+    }
+
+    /* ---------------- Runtime Object -------------------- */
+
+    private static class CallFrame {
+        VMClosure closure;
+        int ip;
+        /**
+         * Slot 0 of the frame, hold the callee or {@code this}
+         */
+        int base;
+        /**
+         * Handlers below this belong to the callers
+         */
+        int handlerBase;
+    }
+
+    /**
+     * Output of {@link BytecodeCompiler}, same as {@code FuncPrototype}
+     */
+    static class VMFunction {
+        final String identifier;
+        final int arity;
+        final Chunk chunk = new Chunk();
+        int upvalueCount = 0;
+        /**
+         * Most stack slots a call use at once, from its {@code base}: the
+         * callee, the locals and the temporaries. See
+         * {@code BytecodeCompiler.stack()}
+         */
+        int maxStack = 0;
+        boolean isInitializer = false;
+
+        VMFunction(String identifier, int arity) {
+            this.identifier = identifier;
+            this.arity = arity;
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + identifier + ">";
+        }
+    }
+
+    /**
+     * Same as {@link TanFunction}
+     */
+    static class VMClosure {
+        final VMFunction function;
+        final VMUpvalue[] upvalues;
+
+        VMClosure(VMFunction function) {
+            this.function = function;
+            this.upvalues = new VMUpvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    /**
+     * A variable captured by a closure. Point to the stack while the variable
+     * is in scope, then hold the value itself
+     */
+    static class VMUpvalue {
+        final int slot;
+        Object closed = null;
+        boolean isOpen = true;
+        VMUpvalue next = null;
+
+        VMUpvalue(int slot) {
+            this.slot = slot;
+        }
+
+        Object get(Object[] stack) {
+            return isOpen ? stack[slot] : closed;
+        }
+
+        void set(Object[] stack, Object value) {
+            if (isOpen)
+                stack[slot] = value;
+            else
+                closed = value;
+        }
+    }
+
+    /**
+     * Same as {@link TanClass}
+     *
+     * @implNote Methods of the superclass are copied down when the class is
+     *           created, so finding a method never walk the superclass chain
+     */
+    static class VMClass {
+        final String identifier;
+        final Map<String, VMClosure> methods = new HashMap<>();
+        VMClosure initializer = null;
+
+        VMClass(String identifier, VMClass superClass) {
+            this.identifier = identifier;
+            if (superClass != null) {
+                methods.putAll(superClass.methods);
+                initializer = superClass.initializer;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "<class " + identifier + ">";
+        }
+    }
+
+    /**
+     * Same as {@link TanInstance}
+     */
+    static class VMInstance {
+        final VMClass _class;
+        final Map<String, Object> fields = new HashMap<>();
+
+        VMInstance(VMClass _class) {
+            this._class = _class;
+        }
+
+        @Override
+        public String toString() {
+            return "<instance of class " + _class.identifier + ">";
+        }
+    }
+
+    /**
+     * Method with {@code this} bound, same as {@link TanFunction#bind}
+     */
+    static class VMBoundMethod {
+        final VMInstance receiver;
+        final VMClosure method;
+
+        VMBoundMethod(VMInstance receiver, VMClosure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+}
@@ -25,32 +25,46 @@ public class GenModel {
 
         defineAST(outputDir, "Expression", Arrays.asList(
                 // format: type (class_name): param_1_type param_1_name,
-                // param_2_type param_2_name,...
+                // param_2_type param_2_name,... | field_1_type field_1_name = default,...
                 // NOTE: Case-sensitive
+                // NOTE: Fields after '|' are not in constructor and not final.
+                // Resolver fill them, i.e: slot = -1 and upvalue = -1 means global variable
+                // NOTE: FuncPrototype.profile is src.JIT.Profile, models can't see src
+                // NOTE: state, target are type feedback of Interpreter, see Interpreter.UNINITIALIZED
+                // NOTE: Get.cache, Set.cache are src.PropertyCache
+                // NOTE: Call.tail is set by Resolver for `return f(...)`, see src.TailCall
+                // NOTE: inlined = the scope has no Environment of its own, its variables
+                // are slots of the enclosing frame, see src.Resolver. For ClassDeclare,
+                // it's the scope of `super`
+                // NOTE: upvalue = index in the upvalues of the running function,
+                // FuncPrototype.captures say where they come from, see src.Environment.Box
+                // NOTE: Super.self is the `this` of `super.method`, made by Resolver
+                // NOTE: global = slot of a global, cached by the first run, see src.Environment#globalSlot
                 "Literal: Object value", // NOTE: Object is the root of all types => Abstract type
-                "This: Token keyword",
-                "Super: Token keyword, Token methodName",
-                "VarAccess: Token identifer",
-                "Logical: Expression lhs, Token operator, Expression rhs",
+                "This: Token keyword | int slot = -1, int upvalue = -1",
+                "Super: Token keyword, Token methodName | int slot = -1, int upvalue = -1, This self = null",
+                "VarAccess: Token identifer | int slot = -1, int upvalue = -1, int global = -1",
+                "Logical: Expression lhs, Token operator, Expression rhs | int state = 0",
                 "Grouping: Expression expr",
-                "Call: Expression funcName, Token closeParen, List<Expression> arguments",
-                "Get: Expression object, Token propName",
-                "Unary: Token operator, Expression expr",
-                "Assign: Token identifier, Expression value",
-                "Set: Expression object, Token propName, Expression value",
-                "Binary: Expression lhs, Token operator, Expression rhs",
+                "Call: Expression funcName, Token closeParen, List<Expression> arguments | int state = 0, Object target = null, boolean tail = false",
+                "Get: Expression object, Token propName | Object cache = null",
+                "Unary: Token operator, Expression expr | int state = 0",
+                "Assign: Token identifier, Expression value | int slot = -1, int upvalue = -1, int global = -1",
+                "Set: Expression object, Token propName, Expression value | Object cache = null",
+                "Binary: Expression lhs, Token operator, Expression rhs | int state = 0",
                 "Ternary: Expression lhs, Token operator, Expression rhs_first, Expression rhs_second"));
 
         defineAST(outputDir, "Statement", Arrays.asList(
-                "Block: List<Statement> stmtList",
+                "Block: List<Statement> stmtList | int slotCount = 0, boolean inlined = false",
                 "Expr: Expression expr",
                 "Print: Expression expr",
-                "VarDeclare: Token identifier, Expression initializer",
+                "VarDeclare: Token identifier, Expression initializer | int slot = -1",
                 "If: Expression condition, Statement ifStmt, Statement elseStmt",
                 "While: Expression condition, Statement body",
-                "FuncPrototype: Token identifier, List<Token> params, List<Statement> blockStmt",
+                "For: Statement initializer, Expression condition, Expression iterate, Statement body | int slotCount = 0, boolean inlined = false, int state = 0",
+                "FuncPrototype: Token identifier, List<Token> params, List<Statement> blockStmt | int slot = -1, int slotCount = 0, int[] captures = null, Object profile = null",
                 "Return: Token keyword, Expression returnVal",
-                "ClassDeclare: Token identifier, VarAccess superClass, List<FuncPrototype> methods"));
+                "ClassDeclare: Token identifier, VarAccess superClass, List<FuncPrototype> methods | int slot = -1, int superSlot = -1, boolean inlined = false"));
     }
 
     /* --------- Helper function --------- */
@@ -91,7 +105,11 @@ public class GenModel {
         for (String production : grammar) {
             String production_name = production.split(":")[0];
             production_name_list.add(production_name);
-            String production_params = production.split(":")[1];
+            String production_params = production.split(":")[1].split("\\|")[0].stripTrailing();
+            // Fields after '|', i.e: " int depth = -1, int slot = -1"
+            String[] production_fields = production.contains("|")
+                    ? production.split("\\|")[1].split(",")
+                    : new String[0];
             // System.out.println(production_params.split(",")[0]); // TEST
             String[] split_params = production_params.split(",");
             // System.out.println(split_params[0] + split_params[1]); // TEST
@@ -110,6 +128,10 @@ public class GenModel {
                 for (int idx = 0; idx < param_name.size(); idx++) {
                     writer.println("public final " + param_type.get(idx) + " _" + param_name.get(idx) + ";");
                 }
+                for (String field : production_fields) {
+                    String[] split_field = field.strip().split("\\s+", 3); // type, name, "= default"
+                    writer.println("public " + split_field[0] + " _" + split_field[1] + " " + split_field[2] + ";");
+                }
 
                 // Constructor
                 writer.println("public " + production_name + "(" + production_params + ") {");